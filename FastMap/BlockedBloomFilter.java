@@ -0,0 +1,172 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.Arrays;
+
+	/**
+	 * BlockedBloomFilter answers "is this key definitely absent" for a fixed
+	 * set of int keys, reading one 32 byte block per question.
+	 *
+	 * A classic Bloom filter sets k bits spread over the whole bit array, so
+	 * a query may touch k cache lines, and stops at the first bit that is
+	 * clear, a branch that is mispredicted whenever the keys looked up are
+	 * unpredictable. This is a "split block" filter (as used by Parquet and
+	 * Impala): the bits are split into blocks of eight 32 bit words, each key
+	 * hashes to one block, and sets exactly one bit in each of the eight
+	 * words. A query builds the eight masks, and ANDs the eight words with
+	 * them without branching.
+	 *
+	 * Confining each key to one block, and to one bit per word, costs some
+	 * accuracy over a classic filter of the same size, so the filter is sized
+	 * by working out the false positive rate of this layout (keys per block
+	 * being Poisson distributed) rather than with the classic formula. The
+	 * lowest rate reachable is about 0.0001, at MAX_BITS_PER_KEY.
+	 *
+	 * mightContain never returns false for a key that was added. For keys
+	 * that were not, it returns true with about the false positive rate
+	 * given on construction. falsePositiveRate gives the rate expected from
+	 * the bits actually set.
+	 *
+	 * Immutable once built, and therefore thread-safe.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class BlockedBloomFilter implements Serializable{
+
+		private static final long serialVersionUID = 5226651170470051806L;
+		final public static int WORDS_PER_BLOCK = 8;
+		final public static int BLOCK_BITS = WORDS_PER_BLOCK * Integer.SIZE;
+		final public static int MAX_BITS_PER_KEY = 48;
+		/*
+		 * odd multipliers, one per word, each giving a different
+		 * bit position from the same 32 bit hash
+		 */
+		final private static int[] SALT = {
+				0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+				0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31};
+		final private int blockCount;
+		final private int keyCount;
+		final private int[] words;
+
+		/**
+		 * @param keys - the keys to add, duplicates are harmless
+		 * @param falsePositiveRate - the target rate, above 0 and below 1
+		 */
+		public BlockedBloomFilter(int[] keys, double falsePositiveRate){
+			if (!(falsePositiveRate > 0 && falsePositiveRate < 1)){
+				throw new IllegalArgumentException("False positive rate must be > 0 and < 1 : "+falsePositiveRate);
+			}
+			double bitsPerKey = 4;
+			while (bitsPerKey < MAX_BITS_PER_KEY && expectedRate(bitsPerKey) > falsePositiveRate){
+				bitsPerKey += 0.5;
+			}
+			long blocks = (long) Math.ceil(Math.max(1, keys.length) * bitsPerKey / BLOCK_BITS);
+			if (blocks > Integer.MAX_VALUE / WORDS_PER_BLOCK){
+				throw new IllegalArgumentException("Too big: "+keys.length+" keys at a rate of "+falsePositiveRate);
+			}
+			blockCount = (int) blocks;
+			keyCount = keys.length;
+			words = new int[blockCount * WORDS_PER_BLOCK];
+			for (int key : keys){
+				add(key);
+			}
+		}
+
+		/**
+		 * The false positive rate of this layout at a given number of bits
+		 * per key: the chance all eight bits are set in a block holding j
+		 * keys, weighted by the Poisson chance of a block holding j keys.
+		 */
+		static double expectedRate(double bitsPerKey){
+			final double keysPerBlock = BLOCK_BITS / bitsPerKey;
+			double poisson = Math.exp(-keysPerBlock);
+			double rate = 0;
+			for (int j = 1 ; j < 10 * keysPerBlock + 10 ; j++){
+				poisson *= keysPerBlock / j;
+				double bitSet = 1 - Math.pow(1 - 1.0 / Integer.SIZE, j);
+				rate += poisson * Math.pow(bitSet, WORDS_PER_BLOCK);
+			}
+			return rate;
+		}
+
+		private static long mix(int key){
+			//murmur3 fmix64
+			long h = key;
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+
+		private int blockStart(long hash){
+			return (int) (((hash >>> 32) * blockCount) >>> 32) * WORDS_PER_BLOCK;
+		}
+
+		private void add(int key){
+			final long hash = mix(key);
+			final int block = blockStart(hash);
+			final int h = (int) hash;
+			for (int i = 0 ; i < WORDS_PER_BLOCK ; i++){
+				words[block + i] |= 1 << ((h * SALT[i]) >>> 27);
+			}
+		}
+
+		/**
+		 * @param key
+		 * @return false if the key was definitely not added
+		 */
+		public boolean mightContain(int key){
+			final long hash = mix(key);
+			final int block = blockStart(hash);
+			final int h = (int) hash;
+			//all ones only if every word has its bit set
+			int all = -1;
+			for (int i = 0 ; i < WORDS_PER_BLOCK ; i++){
+				all &= words[block + i] | ~(1 << ((h * SALT[i]) >>> 27));
+			}
+			return all == -1;
+		}
+
+		/**
+		 * @return the size of the filter in bits
+		 */
+		public long bitSize(){
+			return ((long) words.length) * Integer.SIZE;
+		}
+
+		/**
+		 * The false positive rate expected for the bits set, the average over
+		 * the blocks of the product of the fraction of each word's bits set.
+		 * @return
+		 */
+		public double falsePositiveRate(){
+			if (keyCount == 0){
+				return 0;
+			}
+			double total = 0;
+			for (int block = 0 ; block < words.length ; block += WORDS_PER_BLOCK){
+				double rate = 1;
+				for (int i = 0 ; i < WORDS_PER_BLOCK ; i++){
+					rate *= ((double) Integer.bitCount(words[block + i])) / Integer.SIZE;
+				}
+				total += rate;
+			}
+			return total / blockCount;
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof BlockedBloomFilter){
+				return Arrays.equals(this.words, ((BlockedBloomFilter)other).words);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return keyCount;
+		}
+	}
@@ -0,0 +1,160 @@
+package com.keatingfinance.datastruct;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+	/**
+	 * BloomFilteredIndexLookup puts a BlockedBloomFilter in front of another
+	 * IndexLookup, for workloads where most keys looked up are not in the map,
+	 * e.g. foreign ids that are not in our universe.
+	 *
+	 * A miss in a pigeon hole map walks the whole chain of its home bucket,
+	 * reading keys[] and next[] at every step. Here most misses are turned
+	 * away by the filter after reading one cache line, and only keys the
+	 * filter cannot rule out (the hits, and about falsePositiveRate of the
+	 * misses) go on to the map. Hits cost the filter check on top of the
+	 * lookup, and the branch on the filter's answer holds up the loads
+	 * of the lookups that follow, so this only pays when misses are common
+	 * and dear: when the chains are long (keys the spreader does not
+	 * spread well), or the map is slow to read (MappedFastMap). In front of
+	 * a well spread FastMapV5 it is slower. See FastMapTest "bloom".
+	 *
+	 * If recordStatistics is set on construction, every getIndex counts
+	 * whether it was a hit, a miss rejected by the filter, or a miss the
+	 * filter let through (a false positive), in LongAdders so that counting
+	 * from many threads does not contend. Without it nothing is counted.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class BloomFilteredIndexLookup implements IndexLookup{
+
+		private static final long serialVersionUID = -7906134913306860373L;
+		final public static double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+		final private IndexLookup lookup;
+		final private BlockedBloomFilter filter;
+		final private boolean recordStatistics;
+		final private LongAdder hits = new LongAdder();
+		final private LongAdder rejected = new LongAdder();
+		final private LongAdder falsePositives = new LongAdder();
+
+		public BloomFilteredIndexLookup(IndexLookup lookup){
+			this(lookup, DEFAULT_FALSE_POSITIVE_RATE, false);
+		}
+		/**
+		 * @param lookup - the map to filter, its keys are added to the filter
+		 * @param falsePositiveRate - the target rate, above 0 and below 1
+		 * @param recordStatistics - count hits, rejected and false positives
+		 */
+		public BloomFilteredIndexLookup(IndexLookup lookup, double falsePositiveRate, boolean recordStatistics){
+			this.lookup = lookup;
+			this.filter = new BlockedBloomFilter(lookup.copyKeys(null), falsePositiveRate);
+			this.recordStatistics = recordStatistics;
+		}
+
+		public int getIndex(int key){
+			if (!filter.mightContain(key)){
+				if (recordStatistics){
+					rejected.increment();
+				}
+				return lookup.getNullIndex();
+			}
+			int index = lookup.getIndex(key);
+			if (recordStatistics){
+				if (index == lookup.getNullIndex()){
+					falsePositives.increment();
+				} else {
+					hits.increment();
+				}
+			}
+			return index;
+		}
+
+		public boolean containsKey(int key){
+			return getIndex(key)!=lookup.getNullIndex();
+		}
+
+		public int size(){
+			return lookup.size();
+		}
+
+		public int getNullIndex(){
+			return lookup.getNullIndex();
+		}
+
+		public IndexLookup getLookup(){
+			return lookup;
+		}
+
+		public BlockedBloomFilter getFilter(){
+			return filter;
+		}
+
+		/*
+		 * Statistics, all zero unless recordStatistics was set
+		 */
+		public long getHitCount(){
+			return hits.sum();
+		}
+		/**
+		 * @return misses turned away by the filter
+		 */
+		public long getRejectedCount(){
+			return rejected.sum();
+		}
+		/**
+		 * @return misses the filter let through to the map
+		 */
+		public long getFalsePositiveCount(){
+			return falsePositives.sum();
+		}
+		public long getLookupCount(){
+			return getHitCount() + getRejectedCount() + getFalsePositiveCount();
+		}
+		public double getHitRate(){
+			return rate(getHitCount(), getLookupCount());
+		}
+		public double getMissRate(){
+			return rate(getRejectedCount() + getFalsePositiveCount(), getLookupCount());
+		}
+		/**
+		 * @return the fraction of misses the filter let through to the map,
+		 * 		to compare with getFilter().falsePositiveRate()
+		 */
+		public double getMeasuredFalsePositiveRate(){
+			return rate(getFalsePositiveCount(), getRejectedCount() + getFalsePositiveCount());
+		}
+		public void resetStatistics(){
+			hits.reset();
+			rejected.reset();
+			falsePositives.reset();
+		}
+
+		private static double rate(long count, long total){
+			return total == 0 ? 0 : ((double) count) / total;
+		}
+
+		@Override
+		public String toString(){
+			return "BloomFilteredIndexLookup[lookups="+getLookupCount()+", hit rate="+getHitRate()
+					+", miss rate="+getMissRate()+", false positive rate="+getMeasuredFalsePositiveRate()+"]";
+		}
+
+		@Override
+		public void forEachKey(IntConsumer action){
+			lookup.forEachKey(action);
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			lookup.forEachEntry(action);
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			return lookup.copyKeys(dest);
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return lookup.keyIterable();
+		}
+	}
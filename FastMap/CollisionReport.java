@@ -0,0 +1,137 @@
+package com.keatingfinance.datastruct;
+
+import java.util.Arrays;
+
+/**
+ * Diagnostics of how well the keys of a FastMapV5 or LargeFastMap
+ * are spread across the buckets.
+ *
+ * 	chainLengthHistogram - histogram[n] is the number of buckets
+ * 		that are the home bucket of exactly n keys.
+ * 	averageProbesPerHit - the mean number of keys compared to find a
+ * 		key that is present, over all keys.
+ * 	averageProbesPerMiss - the mean number of keys compared before
+ * 		giving up on a key that is absent, assuming absent keys are
+ * 		spread evenly over the buckets.
+ * 	loadFactor - keys / buckets.
+ *
+ * Because of the pigeon hole hashing, the chain walked from a bucket
+ * may also pass through keys from other buckets, so the probe counts
+ * can be higher than the histogram alone would suggest.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class CollisionReport {
+
+	private final HashSpreader spreader;
+	private final int size;
+	private final int length;
+	private final int[] chainLengthHistogram;
+	private final double averageProbesPerHit;
+	private final double averageProbesPerMiss;
+
+	private CollisionReport(HashSpreader spreader, int size, int length, int[] chainLengthHistogram,
+			double averageProbesPerHit, double averageProbesPerMiss){
+		this.spreader=spreader;
+		this.size=size;
+		this.length=length;
+		this.chainLengthHistogram=chainLengthHistogram;
+		this.averageProbesPerHit=averageProbesPerHit;
+		this.averageProbesPerMiss=averageProbesPerMiss;
+	}
+
+	static CollisionReport of(PigeonHoleTable table){
+		final HashSpreader spreader = table.getSpreader();
+		final int length = table.tableLength();
+		final int lengthMask = length-1;
+
+		int[] keysPerBucket = new int[length];
+		long hitProbes = 0;
+		int keysFound = 0;
+		for (int slot = 0 ; slot < length ; slot++){
+			int key = table.keyAt(slot);
+			if (key == -1 && table.valueAt(slot) == -1){
+				//empty
+				continue;
+			}
+			int home = spreader.entryIndex(key, lengthMask);
+			keysPerBucket[home]++;
+			int index = home;
+			hitProbes++;
+			while (index != slot){
+				index = table.nextAt(index);
+				hitProbes++;
+			}
+			keysFound++;
+		}
+
+		long missProbes = 0;
+		for (int home = 0 ; home < length ; home++){
+			int index = home;
+			do{
+				missProbes++;
+				index = table.nextAt(index);
+			} while (index != -1);
+		}
+
+		int longest = 0;
+		for (int count : keysPerBucket){
+			longest = Math.max(longest, count);
+		}
+		int[] histogram = new int[longest+1];
+		for (int count : keysPerBucket){
+			histogram[count]++;
+		}
+
+		return new CollisionReport(spreader, keysFound, length, histogram,
+				keysFound == 0 ? 0 : ((double)hitProbes)/keysFound,
+				((double)missProbes)/length);
+	}
+
+	public HashSpreader getSpreader() {
+		return spreader;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int tableLength() {
+		return length;
+	}
+
+	/**
+	 * @return a copy of the histogram, element n is the number
+	 * 		of buckets holding exactly n keys.
+	 */
+	public int[] getChainLengthHistogram() {
+		return chainLengthHistogram.clone();
+	}
+
+	public int longestChain(){
+		return chainLengthHistogram.length-1;
+	}
+
+	public double getAverageProbesPerHit() {
+		return averageProbesPerHit;
+	}
+
+	public double getAverageProbesPerMiss() {
+		return averageProbesPerMiss;
+	}
+
+	public double getLoadFactor() {
+		return ((double)size)/length;
+	}
+
+	@Override public String toString(){
+		return "CollisionReport[spreader="+spreader
+				+", size="+size
+				+", length="+length
+				+", loadFactor="+getLoadFactor()
+				+", probesPerHit="+averageProbesPerHit
+				+", probesPerMiss="+averageProbesPerMiss
+				+", chainLengths="+Arrays.toString(chainLengthHistogram)+"]";
+	}
+}
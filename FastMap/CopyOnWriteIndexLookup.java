@@ -0,0 +1,307 @@
+package com.keatingfinance.datastruct;
+
+import java.io.ObjectStreamException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * CopyOnWriteIndexLookup holds an immutable IndexLookup (FastMapV5 or
+ * LargeFastMap, see IndexLookups.build) and allows new keys to be added
+ * to it over time.
+ *
+ * Lookups are served from the currently published snapshot, which is
+ * read through a single volatile field, so readers never lock and never
+ * see a partially built map. Lookups therefore run at the speed of the
+ * immutable map.
+ *
+ * New keys are given the next free index as soon as add(int) is called,
+ * but are only held in a small staging array until the next rebuild.
+ * A rebuild copies the published keys plus the staged keys into a new
+ * map on the executor, then swaps it in. Rebuilds are triggered either:
+ * 	- when the staging array reaches rebuildThreshold keys, or
+ * 	- maxLag after the first key was staged,
+ * whichever comes first. So a key that has been added becomes visible to
+ * getIndex within maxLag plus the time taken to build the map. flush()
+ * rebuilds immediately on the calling thread.
+ *
+ * Indices are never reassigned, a key added at index i keeps index i in
+ * all later snapshots.
+ *
+ * If a background rebuild fails, lookups carry on from the last published
+ * snapshot and the staged keys stay staged. The failure is thrown, as the
+ * cause of an IllegalStateException, from the next add(int) of a new key,
+ * after which rebuilds are scheduled as normal again. flush() retries the
+ * rebuild on the calling thread.
+ *
+ * Serializing this writes only the currently published snapshot, which
+ * will be deserialized as the immutable map.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class CopyOnWriteIndexLookup implements IndexLookup {
+
+	private static final long serialVersionUID = 6203728745932290314L;
+	public static final int DEFAULT_REBUILD_THRESHOLD = 1024;
+
+	private final transient ScheduledExecutorService executor;
+	private final transient long maxLagNanos;
+	private final transient int rebuildThreshold;
+	private final transient Function<int[], IndexLookup> build;
+	private final transient Object stagingLock = new Object();
+	private final transient Object rebuildLock = new Object();
+
+	private transient volatile Snapshot snapshot;
+
+	/*
+	 * guarded by stagingLock
+	 */
+	private transient int[] staged = new int[16];
+	private transient int stagedCount = 0;
+	private transient boolean rebuildScheduled = false;
+	private transient boolean rebuildQueued = false;
+	private transient Throwable rebuildFailure = null;
+
+	private final transient Runnable backgroundRebuild = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				flush();
+			} catch (RuntimeException | Error e){
+				synchronized (stagingLock) {
+					rebuildFailure = e;
+				}
+			}
+		}
+	};
+
+	/**
+	 * The published, immutable, state. The key array is kept so
+	 * that the next snapshot can be built without iterating the map.
+	 */
+	private static final class Snapshot {
+		final IndexLookup map;
+		final int[] orderedKeys;
+		Snapshot(int[] orderedKeys, Function<int[], IndexLookup> build){
+			this.orderedKeys=orderedKeys;
+			this.map=build.apply(orderedKeys);
+		}
+	}
+
+	public CopyOnWriteIndexLookup(int[] orderedKeys, ScheduledExecutorService executor, long maxLag, TimeUnit unit){
+		this(orderedKeys, executor, maxLag, unit, DEFAULT_REBUILD_THRESHOLD);
+	}
+	/**
+	 * @param orderedKeys - the initial keys, ordered in the sense that the
+	 * 			index of each key will become it's associated value.
+	 * @param executor - runs the background rebuilds
+	 * @param maxLag - the longest a staged key waits for a rebuild
+	 * @param unit - unit of maxLag
+	 * @param rebuildThreshold - the number of staged keys which triggers an immediate rebuild
+	 */
+	public CopyOnWriteIndexLookup(int[] orderedKeys, ScheduledExecutorService executor, long maxLag, TimeUnit unit, int rebuildThreshold){
+		this(orderedKeys, executor, maxLag, unit, rebuildThreshold, IndexLookups::build);
+	}
+	/**
+	 * As above, with the function that builds each snapshot's map from
+	 * its keys, rather than IndexLookups.build. Used by FastMapTest to
+	 * make a rebuild fail.
+	 */
+	CopyOnWriteIndexLookup(int[] orderedKeys, ScheduledExecutorService executor, long maxLag, TimeUnit unit, int rebuildThreshold,
+			Function<int[], IndexLookup> build){
+		if (rebuildThreshold < 1){
+			throw new IllegalArgumentException("rebuildThreshold must be at least 1: "+rebuildThreshold);
+		}
+		this.executor=executor;
+		this.maxLagNanos=unit.toNanos(maxLag);
+		this.rebuildThreshold=rebuildThreshold;
+		this.build=build;
+		this.snapshot=new Snapshot(orderedKeys.clone(), build);
+	}
+
+	/**
+	 * Adds a key, which will be visible to getIndex after the next rebuild.
+	 *
+	 * @param key
+	 * @return the index of the key. If the key is already present, or already
+	 * 		staged, its existing index is returned.
+	 */
+	public int add(int key){
+		final Snapshot current = snapshot;
+		if (current.map.containsKey(key)){
+			return current.map.getIndex(key);
+		}
+		synchronized (stagingLock) {
+			/*
+			 * the snapshot may have been swapped since it was read above,
+			 * in which case the key may now be published rather than staged.
+			 */
+			final Snapshot published = snapshot;
+			if (published.map.containsKey(key)){
+				return published.map.getIndex(key);
+			}
+			throwRebuildFailure();
+			for (int i = 0 ; i < stagedCount ; i++){
+				if (staged[i]==key){
+					return published.orderedKeys.length + i;
+				}
+			}
+			if (stagedCount == staged.length){
+				staged = Arrays.copyOf(staged, staged.length*2);
+			}
+			staged[stagedCount++]=key;
+			int index = published.orderedKeys.length + stagedCount - 1;
+			scheduleRebuild();
+			return index;
+		}
+	}
+
+	/*
+	 * call with stagingLock held.
+	 *
+	 * At most one rebuild is queued to run now, and one delayed by maxLag,
+	 * however many keys are added before they run.
+	 */
+	private void scheduleRebuild() {
+		if (stagedCount >= rebuildThreshold){
+			if (!rebuildQueued){
+				rebuildQueued = true;
+				executor.execute(backgroundRebuild);
+			}
+		} else if (!rebuildScheduled && !rebuildQueued){
+			rebuildScheduled = true;
+			executor.schedule(backgroundRebuild, maxLagNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/*
+	 * call with stagingLock held
+	 */
+	private void throwRebuildFailure() {
+		final Throwable failure = rebuildFailure;
+		if (failure != null){
+			rebuildFailure = null;
+			throw new IllegalStateException("Background rebuild failed, "+stagedCount+" keys are still staged", failure);
+		}
+	}
+
+	/**
+	 * Rebuilds the map with all staged keys, on the calling thread,
+	 * and publishes it. Does nothing if there are no staged keys.
+	 */
+	public void flush(){
+		synchronized (rebuildLock) {
+			final Snapshot current = snapshot;
+			final int[] newKeys;
+			final int taken;
+			synchronized (stagingLock) {
+				taken = stagedCount;
+				rebuildScheduled = false;
+				rebuildQueued = false;
+				if (taken == 0){
+					return;
+				}
+				newKeys = Arrays.copyOf(current.orderedKeys, current.orderedKeys.length + taken);
+				System.arraycopy(staged, 0, newKeys, current.orderedKeys.length, taken);
+			}
+
+			//the slow part, done without blocking add()
+			final Snapshot next = new Snapshot(newKeys, build);
+
+			synchronized (stagingLock) {
+				//keys staged while building keep their place at the end
+				System.arraycopy(staged, taken, staged, 0, stagedCount-taken);
+				stagedCount -= taken;
+				snapshot = next;
+				rebuildFailure = null;
+				if (stagedCount > 0){
+					scheduleRebuild();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of keys added but not yet visible to getIndex
+	 */
+	public int stagedCount(){
+		synchronized (stagingLock) {
+			return stagedCount;
+		}
+	}
+
+	/**
+	 * @return the immutable map currently used for lookups.
+	 */
+	public IndexLookup getSnapshot(){
+		return snapshot.map;
+	}
+
+	@Override
+	public int getIndex(int primaryKey) {
+		return snapshot.map.getIndex(primaryKey);
+	}
+
+	@Override
+	public boolean containsKey(int primaryKey) {
+		return snapshot.map.containsKey(primaryKey);
+	}
+
+	@Override
+	public int getIndices(int[] primaryKeys, int from, int to, int[] out) {
+		return snapshot.map.getIndices(primaryKeys, from, to, out);
+	}
+
+	@Override
+	public Iterable<Integer> keyIterable() {
+		return snapshot.map.keyIterable();
+	}
+
+	@Override
+	public void forEachKey(IntConsumer action) {
+		for (int key : snapshot.orderedKeys){
+			action.accept(key);
+		}
+	}
+
+	@Override
+	public void forEachEntry(IntIntConsumer action) {
+		final int[] orderedKeys = snapshot.orderedKeys;
+		for (int i = 0 ; i < orderedKeys.length ; i++){
+			action.accept(orderedKeys[i], i);
+		}
+	}
+
+	/**
+	 * The published keys, which the snapshot already holds in index order
+	 */
+	@Override
+	public int[] copyKeys(int[] dest) {
+		final int[] orderedKeys = snapshot.orderedKeys;
+		if (dest == null || dest.length < orderedKeys.length){
+			return orderedKeys.clone();
+		}
+		System.arraycopy(orderedKeys, 0, dest, 0, orderedKeys.length);
+		return dest;
+	}
+
+	/**
+	 * @return the number of published keys
+	 */
+	@Override
+	public int size() {
+		return snapshot.map.size();
+	}
+
+	@Override
+	public int getNullIndex() {
+		return snapshot.map.getNullIndex();
+	}
+
+	private Object writeReplace() throws ObjectStreamException{
+		return snapshot.map;
+	}
+}
@@ -0,0 +1,195 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+	/**
+	 * DirectIndexLookup is a direct addressed IndexLookup for keys that
+	 * fall in a narrow range, e.g. sequential internal ids.
+	 *
+	 * It holds one short per possible key between the smallest and the
+	 * largest key, so
+	 *
+	 * 	getIndex(key) = offsets[key - min]
+	 *
+	 * with no hashing and no comparison of keys. Positions that are not
+	 * keys hold -1. This is only worthwhile when most of the range is
+	 * used, see IndexLookups.chooseLayout, which picks it for ranges that
+	 * are at least a quarter full.
+	 *
+	 * As the indices are held as shorts, there must be fewer than
+	 * Short.MAX_VALUE keys. The range may be up to MAX_RANGE.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class DirectIndexLookup implements IndexLookup, Serializable{
+
+		private static final long serialVersionUID = 8831722904461527370L;
+		final public static int MAX_RANGE = 1 << 24;
+		final private int min;
+		final private int size;
+		final private short[] offsets;
+
+		/*
+		 * this is what is returned if it does not exist,
+		 * as with primitives, we cannot simply return null
+		 * Can be changed to point somewhere else.
+		 */
+		private int nullIndex = -1;
+
+
+		public DirectIndexLookup(UniqueHash[] orderedKeys){
+			this(FastMapV5.toIntArray(orderedKeys));
+		}
+		/**
+		 * @param orderedKeys - ordered in the sense that the index of
+		 * 			each key will become it's associated value.
+		 * 			Must have a length < Short.MAX_VALUE, and the largest
+		 * 			key may be at most MAX_RANGE-1 above the smallest.
+		 */
+		public DirectIndexLookup(int[] orderedKeys){
+			if (!IndexLookups.fitsShortLayout(orderedKeys.length)){
+				throw new IllegalArgumentException("Too big: "+orderedKeys.length+" Maximum size is "+Short.MAX_VALUE);
+			}
+			size = orderedKeys.length;
+			int low = Integer.MAX_VALUE;
+			int high = Integer.MIN_VALUE;
+			for (int key : orderedKeys){
+				low = Math.min(low, key);
+				high = Math.max(high, key);
+			}
+			long range = size == 0 ? 0 : ((long) high) - low + 1;
+			if (range > MAX_RANGE){
+				throw new IllegalArgumentException("Key range too wide: "+range+" Maximum range is "+MAX_RANGE);
+			}
+			min = size == 0 ? 0 : low;
+			offsets = new short[(int) range];
+			Arrays.fill(offsets, (short) -1);
+			for (int i = 0 ; i < orderedKeys.length ; i++){
+				int offset = orderedKeys[i] - min;
+				if (offsets[offset] != -1){
+					throw new IllegalArgumentException("Duplicated key:"+orderedKeys[i]);
+				}
+				offsets[offset] = (short) i;
+			}
+		}
+
+		public int size(){
+			return size;
+		}
+
+		public int getIndex(int key){
+			int offset = key - min;
+			if (offset < 0 || offset >= offsets.length){
+				return nullIndex;
+			}
+			int index = offsets[offset];
+			return index == -1 ? nullIndex : index;
+		}
+
+		public boolean containsKey(int key){
+			return getIndex(key)!=nullIndex;
+		}
+
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		/**
+		 * @return the number of positions in the offset table,
+		 * 		the largest key minus the smallest plus one.
+		 */
+		public int range(){
+			return offsets.length;
+		}
+
+		@Override
+		public void forEachKey(IntConsumer action){
+			for (int offset = 0 ; offset < offsets.length ; offset++){
+				if (offsets[offset]!=-1){
+					action.accept(min + offset);
+				}
+			}
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			for (int offset = 0 ; offset < offsets.length ; offset++){
+				if (offsets[offset]!=-1){
+					action.accept(min + offset, offsets[offset]);
+				}
+			}
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			int[] orderedKeys = dest != null && dest.length >= size ? dest : new int[size];
+			for (int offset = 0 ; offset < offsets.length ; offset++){
+				if (offsets[offset]!=-1){
+					orderedKeys[offsets[offset]] = min + offset;
+				}
+			}
+			return orderedKeys;
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof DirectIndexLookup){
+				DirectIndexLookup otherMap = ((DirectIndexLookup)other);
+				return this.size==otherMap.size && this.nullIndex==otherMap.nullIndex
+						&& this.min==otherMap.min && Arrays.equals(this.offsets, otherMap.offsets);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return size;
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return new Iterable<Integer>() {
+
+				@Override
+				public Iterator<Integer> iterator() {
+					return new Iterator<Integer>() {
+						int offset = nextOffset(-1);
+						@Override
+						public boolean hasNext() {
+							return offset < offsets.length;
+						}
+
+						private int nextOffset(int offset) {
+							do{
+								offset++;
+							} while((offset<offsets.length && offsets[offset]==-1));
+							return offset;
+						}
+
+						@Override
+						public Integer next() {
+							int key = min + offset;
+							offset = nextOffset(offset);
+							return key;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
@@ -1,5 +1,6 @@
 package com.keatingfinance.datastruct;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -25,9 +26,65 @@ public class FastMapTest {
 	 * or only the size.
 	 * First arg is the size
 	 * Second arg is the repeats
+	 *
+	 * "layout" as the first arg instead runs runLayoutTest,
+	 * "probe" runs runProbeTest,
+	 * "merge" runs runMergeTest, "bloom" runs runBloomTest,
+	 * "short" runs runShortKeyTest, "dates" runs checkInstrumentDateIndex,
+	 * "postings" runs checkPostingListIndex, "emptykey" runs checkEmptyKey,
+	 * "long" runs checkLongFastMap, "parallel" runs checkParallelBuilder,
+	 * "mapped" runs checkMappedFastMap, "cow" runs checkCopyOnWrite
 	 * @param args 
 	 */
 	public static void main(String... args){
+		if (args.length>0 && args[0].equals("layout")){
+			runLayoutTest();
+			return;
+		}
+		if (args.length>0 && args[0].equals("probe")){
+			runProbeTest(args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE);
+			return;
+		}
+		if (args.length>0 && args[0].equals("merge")){
+			runMergeTest(args.length>1 ? Integer.parseInt(args[1]) : 1<<20);
+			return;
+		}
+		if (args.length>0 && args[0].equals("short")){
+			runShortKeyTest();
+			return;
+		}
+		if (args.length>0 && args[0].equals("dates")){
+			checkInstrumentDateIndex();
+			return;
+		}
+		if (args.length>0 && args[0].equals("postings")){
+			checkPostingListIndex();
+			return;
+		}
+		if (args.length>0 && args[0].equals("emptykey")){
+			checkEmptyKey();
+			return;
+		}
+		if (args.length>0 && args[0].equals("long")){
+			checkLongFastMap();
+			return;
+		}
+		if (args.length>0 && args[0].equals("parallel")){
+			checkParallelBuilder();
+			return;
+		}
+		if (args.length>0 && args[0].equals("mapped")){
+			checkMappedFastMap();
+			return;
+		}
+		if (args.length>0 && args[0].equals("cow")){
+			checkCopyOnWrite();
+			return;
+		}
+		if (args.length>0 && args[0].equals("bloom")){
+			runBloomTest(args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE);
+			return;
+		}
 		int repeats;
 		int size;
 		
@@ -59,19 +116,742 @@ public class FastMapTest {
 			map.put(testValues[i],i);
 		}
 		
-		IndexLookup indexLookup = new FastMapV5(testValues);
+		IndexLookup[] indexLookups = {
+				new FastMapV5(testValues),
+				new PerfectHashMap(testValues)
+		};
 		
-		if (Math.random() < 0.5){
-			testHashMap(map,testValues);
-			testIndexLookup(indexLookup,testValues);
-		} else{
-			testIndexLookup(indexLookup,testValues);
-			testHashMap(map,testValues);
+		/*
+		 * the HashMap is tested at position indexLookups.length,
+		 * start from a random position so each gets a turn at going first
+		 */
+		int first = (int) (Math.random()*(indexLookups.length+1));
+		for (int i = 0 ; i <= indexLookups.length ; i++){
+			int test = (first+i) % (indexLookups.length+1);
+			if (test == indexLookups.length){
+				testHashMap(map,testValues);
+			} else {
+				testIndexLookup(indexLookups[test],testValues);
+			}
 		}
+		System.out.println("FastMapV5 average probes per lookup= "
+				+((FastMapV5)indexLookups[0]).collisionReport().getAverageProbesPerHit()
+				+", PerfectHashMap always 1");
 		
 	}
 	
-	
+	/**
+	 * Compares the separate array layout (FastMapV5, LargeFastMap) with the
+	 * packed layout of PackedFastMap, at sizes chosen so the tables sit in
+	 * L2, in L3 and in main memory. The keys are looked up in random order
+	 * so each lookup lands on an unrelated bucket.
+	 */
+	public static void runLayoutTest(){
+		final int[] sizes = {30000, 1<<20, 1<<24};
+		final String[] residency = {"L2", "L3", "DRAM"};
+		for (int s = 0 ; s < sizes.length ; s++){
+			int[] keys = createUniqueArray(sizes[s]);
+			int lookups = 1<<22;
+			int[] order = new int[lookups];
+			int[] probes = new int[lookups];
+			java.util.Random random = new java.util.Random(s);
+			for (int i = 0 ; i < lookups ; i++){
+				order[i] = random.nextInt(keys.length);
+				probes[i] = keys[order[i]];
+			}
+			System.out.println(residency[s]+" resident, "+keys.length+" keys");
+			IndexLookup[] indexLookups = IndexLookups.fitsShortLayout(keys.length)
+					? new IndexLookup[]{new FastMapV5(keys), new LargeFastMap(keys), new PackedFastMap(keys)}
+					: new IndexLookup[]{new LargeFastMap(keys), new PackedFastMap(keys)};
+			for (int repeat = 0 ; repeat < 3 ; repeat++){
+				for (IndexLookup indexLookup : indexLookups){
+					testRandomOrder(indexLookup, probes, order, repeat==2);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares FastMapV5 with RobinHoodMap and SwissTableMap for a hit heavy workload (every
+	 * key present) and a miss heavy one (9 in 10 keys absent), and prints
+	 * the worst case number of slots each can examine.
+	 */
+	public static void runProbeTest(int size){
+		int[] keys = createUniqueArray(size*10);
+		int[] present = Arrays.copyOf(keys, size);
+		int lookups = 1<<22;
+		int[] hits = new int[lookups];
+		int[] hitIndices = new int[lookups];
+		int[] mostlyMisses = new int[lookups];
+		java.util.Random random = new java.util.Random(size);
+		for (int i = 0 ; i < lookups ; i++){
+			hitIndices[i] = random.nextInt(size);
+			hits[i] = present[hitIndices[i]];
+			mostlyMisses[i] = keys[random.nextInt(keys.length)];
+		}
+		FastMapV5 fastMap = new FastMapV5(present);
+		RobinHoodMap robinHood = new RobinHoodMap(present);
+		SwissTableMap swissTable = new SwissTableMap(present);
+		IndexLookup[] indexLookups = {fastMap, robinHood, swissTable};
+		for (int repeat = 0 ; repeat < 3 ; repeat++){
+			for (IndexLookup indexLookup : indexLookups){
+				testRandomOrder(indexLookup, hits, hitIndices, repeat==2);
+				testMisses(indexLookup, mostlyMisses, repeat==2);
+			}
+		}
+		System.out.println("Worst case slots examined: FastMapV5 (longest chain walked)= "
+				+(fastMap.deepestCollission()+1)+", RobinHoodMap= "+(robinHood.maxProbeLength()+1));
+		System.out.println("Slots per key: FastMapV5= "+(((double)fastMap.tableLength())/size)
+				+", SwissTableMap= "+(((double)swissTable.tableLength())/size)
+				+" (Vector API "+SwissTableMap.usesVectorApi()+")");
+
+		//keys sharing their low bits, the worst case for FastMapV5's default IDENTITY spreader
+		int[] clustered = new int[size];
+		for (int i = 0 ; i < size ; i++){
+			clustered[i] = i*64;
+		}
+		System.out.println("Clustered keys, worst case slots examined: FastMapV5= "
+				+(new FastMapV5(clustered).deepestCollission()+1)
+				+", RobinHoodMap= "+(new RobinHoodMap(clustered).maxProbeLength()+1));
+	}
+
+	/**
+	 * Reconciles two universes of size keys, each sharing 95% of its keys
+	 * with the other, with boxed HashMaps and with UniverseMerge.
+	 */
+	public static void runMergeTest(int size){
+		int[] keys = createUniqueArray(size + size/20);
+		int[] oldKeys = Arrays.copyOf(keys, size);
+		int[] newKeys = Arrays.copyOfRange(keys, size/20, keys.length);
+		IndexLookup oldMap = IndexLookups.build(oldKeys);
+		IndexLookup newMap = IndexLookups.build(newKeys);
+		for (int repeat = 0 ; repeat < 3 ; repeat++){
+			long begin = System.nanoTime();
+			Map<Integer,Integer> oldHashMap = new HashMap<>();
+			for (int i = 0 ; i < oldKeys.length ; i++){
+				oldHashMap.put(oldKeys[i], i);
+			}
+			Map<Integer,Integer> newHashMap = new HashMap<>();
+			for (int i = 0 ; i < newKeys.length ; i++){
+				newHashMap.put(newKeys[i], i);
+			}
+			int[] oldToNew = new int[oldKeys.length];
+			Set<Integer> removed = new HashSet<>();
+			for (int i = 0 ; i < oldKeys.length ; i++){
+				Integer newIndex = newHashMap.get(oldKeys[i]);
+				oldToNew[i] = newIndex == null ? -1 : newIndex;
+				if (newIndex == null){
+					removed.add(oldKeys[i]);
+				}
+			}
+			Set<Integer> added = new HashSet<>();
+			for (int key : newKeys){
+				if (!oldHashMap.containsKey(key)){
+					added.add(key);
+				}
+			}
+			long hashMapTaken = System.nanoTime()-begin;
+
+			begin = System.nanoTime();
+			UniverseMerge merge = UniverseMerge.merge(oldMap, newMap);
+			long mergeTaken = System.nanoTime()-begin;
+			if (merge.getAddedKeys().length != added.size() || merge.getRemovedKeys().length != removed.size()
+					|| !Arrays.equals(merge.getOldToNew(), oldToNew)){
+				throw new AssertionError();
+			}
+			System.out.println(size+" keys, "+added.size()+" added, "+removed.size()+" removed. HashMap= "
+					+(hashMapTaken/1000000)+" ms, UniverseMerge= "+(mergeTaken/1000000)+" ms");
+		}
+	}
+
+	/**
+	 * Compares ShortFastMap with FastMapV5 for 16 bit keys: the
+	 * SimpleDate.compressedHash of every weekday from 2000 to 2024,
+	 * looked up one at a time and with getIndices.
+	 */
+	/**
+	 * Checks the Builder and the keys and values constructor give the same
+	 * map as the orderedKeys constructor, that copyKeys returns the keys,
+	 * and that negative values are rejected.
+	 */
+	private static void checkShortFastMap(ShortFastMap shortMap, short[] orderedKeys){
+		ShortFastMap.Builder builder = ShortFastMap.getBuilder(orderedKeys.length);
+		short[] values = new short[orderedKeys.length];
+		for (int i = 0 ; i < orderedKeys.length ; i++){
+			builder.put(orderedKeys[i], (short) i);
+			values[i] = (short) i;
+		}
+		if (!shortMap.equals(builder.build()) || !shortMap.equals(new ShortFastMap(orderedKeys, values))
+				|| !Arrays.equals(shortMap.copyKeys(null), orderedKeys)){
+			throw new AssertionError("ShortFastMap builds differ");
+		}
+		values[0] = -2;
+		try {
+			new ShortFastMap(orderedKeys, values);
+			throw new AssertionError("accepted a negative value");
+		} catch (IllegalArgumentException expected){
+		}
+	}
+
+	public static void runShortKeyTest(){
+		short[] dates = new short[7000];
+		int count = 0;
+		java.time.LocalDate date = java.time.LocalDate.of(2000, 1, 1);
+		while (date.getYear() < 2025 && count < dates.length){
+			if (date.getDayOfWeek().getValue() <= 5){
+				dates[count++] = com.keatingfinance.util.SimpleDate.toCompressedHash(
+						date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+			}
+			date = date.plusDays(1);
+		}
+		dates = Arrays.copyOf(dates, count);
+		int[] intDates = new int[count];
+		for (int i = 0 ; i < count ; i++){
+			intDates[i] = dates[i];
+		}
+		ShortFastMap shortMap = new ShortFastMap(dates);
+		FastMapV5 intMap = new FastMapV5(intDates);
+		checkShortFastMap(shortMap, dates);
+		int lookups = 1<<22;
+		short[] probes = new short[lookups];
+		int[] intProbes = new int[lookups];
+		int[] expected = new int[lookups];
+		int[] out = new int[lookups];
+		java.util.Random random = new java.util.Random(count);
+		for (int i = 0 ; i < lookups ; i++){
+			expected[i] = random.nextInt(count);
+			probes[i] = dates[expected[i]];
+			intProbes[i] = probes[i];
+		}
+		System.out.println(count+" dates, table bytes ShortFastMap= "+(shortMap.tableLength()*6)
+				+", FastMapV5= "+(intMap.tableLength()*8));
+		for (int repeat = 0 ; repeat < 3 ; repeat++){
+			long begin = System.nanoTime();
+			for (int i = 0 ; i < lookups ; i++){
+				if (shortMap.getIndex(probes[i])!=expected[i]){
+					throw new AssertionError();
+				}
+			}
+			long shortTaken = System.nanoTime()-begin;
+			begin = System.nanoTime();
+			shortMap.getIndices(probes, 0, lookups, out);
+			long shortBatchTaken = System.nanoTime()-begin;
+			testRandomOrder(intMap, intProbes, expected, repeat==2);
+			begin = System.nanoTime();
+			intMap.getIndices(intProbes, 0, lookups, out);
+			long intBatchTaken = System.nanoTime()-begin;
+			if (repeat==2){
+				System.out.println("  ShortFastMap random order hits. Average lookup time= "
+						+(((double)shortTaken)/lookups)+" ns");
+				System.out.println("  getIndices average lookup time, ShortFastMap= "+(((double)shortBatchTaken)/lookups)
+						+" ns, FastMapV5= "+(((double)intBatchTaken)/lookups)+" ns");
+			}
+		}
+	}
+
+	/**
+	 * Checks that InstrumentDateIndex iterates the rows of the first and
+	 * the last instrument slot, including the last slot up to the latest
+	 * date, and that a date of 0xffff, which would make key -1 in the last
+	 * slot, is rejected. The latest date in the last slot and the rejected
+	 * date are put in every row order.
+	 */
+	public static void checkInstrumentDateIndex(){
+		short latest = com.keatingfinance.util.SimpleDate.LATEST_SHORT.compressedHash();
+		int[] slots = {0, InstrumentDateIndex.MAX_INSTRUMENT_SLOT, 7, InstrumentDateIndex.MAX_INSTRUMENT_SLOT, 0,
+				InstrumentDateIndex.MAX_INSTRUMENT_SLOT};
+		short[] dates = {
+				com.keatingfinance.util.SimpleDate.toCompressedHash(2020, 1, 2),
+				com.keatingfinance.util.SimpleDate.toCompressedHash(2020, 1, 2),
+				com.keatingfinance.util.SimpleDate.toCompressedHash(2020, 1, 2),
+				com.keatingfinance.util.SimpleDate.toCompressedHash(2077, 12, 30),
+				com.keatingfinance.util.SimpleDate.toCompressedHash(2077, 12, 30),
+				latest};
+		InstrumentDateIndex index = new InstrumentDateIndex(slots, dates);
+		int[][] expectedRows = {{0, 4}, {1, 3, 5}};
+		int[] checkedSlots = {0, InstrumentDateIndex.MAX_INSTRUMENT_SLOT};
+		for (int s = 0 ; s < checkedSlots.length ; s++){
+			int first = index.firstPosition(checkedSlots[s]);
+			int end = index.endPosition(checkedSlots[s]);
+			int[] rows = new int[end-first];
+			for (int p = first ; p < end ; p++){
+				if (index.instrumentSlotAt(p) != checkedSlots[s]){
+					throw new AssertionError("slot "+index.instrumentSlotAt(p)+" at "+p);
+				}
+				rows[p-first] = index.rowAt(p);
+			}
+			if (!Arrays.equals(rows, expectedRows[s])){
+				throw new AssertionError("slot "+checkedSlots[s]+" rows "+Arrays.toString(rows));
+			}
+		}
+		if (index.endPosition(InstrumentDateIndex.MAX_INSTRUMENT_SLOT) != slots.length
+				|| index.getRow(InstrumentDateIndex.MAX_INSTRUMENT_SLOT, latest) != 5){
+			throw new AssertionError("last key");
+		}
+		int[][] orders = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+		int[] lastSlots = {0, InstrumentDateIndex.MAX_INSTRUMENT_SLOT, 1};
+		short date = com.keatingfinance.util.SimpleDate.toCompressedHash(2020, 1, 2);
+		for (int[] order : orders){
+			int[] orderedSlots = new int[order.length];
+			short[] orderedDates = new short[order.length];
+			for (int row = 0 ; row < order.length ; row++){
+				orderedSlots[row] = lastSlots[order[row]];
+				orderedDates[row] = order[row] == 1 ? latest : date;
+			}
+			InstrumentDateIndex ordered = new InstrumentDateIndex(orderedSlots, orderedDates);
+			for (int row = 0 ; row < order.length ; row++){
+				if (ordered.getRow(orderedSlots[row], orderedDates[row]) != row){
+					throw new AssertionError("order "+Arrays.toString(order)+" row "+row);
+				}
+			}
+			for (int row = 0 ; row < order.length ; row++){
+				if (order[row] == 1){
+					orderedDates[row] = (short) 0xffff;
+				}
+			}
+			try {
+				new InstrumentDateIndex(orderedSlots, orderedDates);
+				throw new AssertionError("date 0xffff accepted, order "+Arrays.toString(order));
+			} catch (IllegalArgumentException expected){
+			}
+		}
+		System.out.println("InstrumentDateIndex first and last slots OK");
+	}
+
+	/**
+	 * Checks that PostingListIndex finds the rows of key -1, the empty
+	 * marker of the pigeon hole maps, when it is mixed with keys whose
+	 * low bits are the same as its own (2047 and 3071), and the rows of
+	 * the keys either side of it.
+	 */
+	public static void checkPostingListIndex(){
+		int[] column = new int[22];
+		int[] keys = {-5, -1, 2047, 3071};
+		for (int row = 0 ; row < column.length ; row++){
+			column[row] = keys[row % keys.length];
+		}
+		PostingListIndex index = new PostingListIndex(column);
+		if (index.keyCount() != keys.length || index.size() != column.length){
+			throw new AssertionError(index.keyCount()+" keys, "+index.size()+" rows");
+		}
+		for (int key : keys){
+			int[] rows = new int[index.count(key)];
+			for (int p = index.firstPosition(key) ; p < index.endPosition(key) ; p++){
+				rows[p-index.firstPosition(key)] = index.rowAt(p);
+			}
+			int[] expected = java.util.stream.IntStream.range(0, column.length).filter(row -> column[row] == key).toArray();
+			if (!Arrays.equals(rows, expected)){
+				throw new AssertionError("key "+key+" rows "+Arrays.toString(rows));
+			}
+		}
+		if (index.containsKey(1023) || index.count(-2) != 0){
+			throw new AssertionError("absent key");
+		}
+		System.out.println("PostingListIndex key -1 OK");
+	}
+
+	/**
+	 * Checks that IndexLookups.build finds key -1, the empty bucket marker
+	 * of the pigeon hole maps, for keys that would otherwise be given each
+	 * of the layouts, and that the pigeon hole maps reject it rather than
+	 * lose it. An empty PerfectHashMap, whose one slot holds -1, must not
+	 * find it either.
+	 */
+	public static void checkEmptyKey(){
+		int[] sparse = createUniqueArray(1000);
+		int[] large = createUniqueArray(Short.MAX_VALUE*2);
+		int[] dense = new int[1000];
+		for (int i = 0 ; i < dense.length ; i++){
+			dense[i] = i+5;
+		}
+		for (int[] keys : new int[][]{sparse, large, dense}){
+			if (IndexLookups.chooseLayout(keys) == IndexLookups.Layout.PERFECT_HASH){
+				throw new AssertionError("perfect hash chosen without -1");
+			}
+			int[] withEmpty = Arrays.copyOf(keys, keys.length+1);
+			withEmpty[keys.length] = -1;
+			IndexLookup[] indexLookups = {
+					IndexLookups.build(withEmpty),
+					IndexLookups.build(withEmpty, java.util.concurrent.ForkJoinPool.commonPool())
+			};
+			for (IndexLookup indexLookup : indexLookups){
+				for (int i = 0 ; i < withEmpty.length ; i++){
+					if (indexLookup.getIndex(withEmpty[i]) != i){
+						throw new AssertionError(IndexLookups.layoutOf(indexLookup)+" key "+withEmpty[i]);
+					}
+				}
+			}
+		}
+		int[] withEmpty = {1, -1, 2};
+		Runnable[] builds = {
+				() -> new FastMapV5(withEmpty),
+				() -> new LargeFastMap(withEmpty),
+				() -> new PackedFastMap(withEmpty),
+				() -> IndexLookups.build(withEmpty, IndexLookups.Layout.FAST_MAP_V5),
+				() -> ParallelFastMapBuilder.build(withEmpty),
+				() -> {
+					FastMapV5.Builder builder = FastMapV5.getBuilder(3);
+					for (int i = 0 ; i < withEmpty.length ; i++){
+						builder.put(withEmpty[i], i);
+					}
+					builder.build();
+				}
+		};
+		for (int b = 0 ; b < builds.length ; b++){
+			try {
+				builds[b].run();
+				throw new AssertionError("build "+b+" accepted -1");
+			} catch (IllegalArgumentException expected){
+			}
+		}
+		PerfectHashMap empty = new PerfectHashMap(new int[0]);
+		empty.setNullIndex(Integer.MIN_VALUE);
+		if (empty.getIndex(-1) != Integer.MIN_VALUE || empty.containsKey(-1)){
+			throw new AssertionError("empty PerfectHashMap found -1");
+		}
+		System.out.println("Key -1 OK");
+	}
+
+	/**
+	 * Checks CopyOnWriteIndexLookup: an added key is given the next index
+	 * but is only visible after flush() swaps in a new snapshot, reaching
+	 * the rebuild threshold rebuilds on the executor, and a failed
+	 * background rebuild is thrown from the next add of a new key, while
+	 * lookups carry on from the last snapshot.
+	 */
+	public static void checkCopyOnWrite(){
+		int[] keys = createUniqueArray(1100);
+		int[] initial = Arrays.copyOf(keys, 1000);
+		java.util.concurrent.atomic.AtomicBoolean failing = new java.util.concurrent.atomic.AtomicBoolean();
+		RuntimeException failure = new RuntimeException("rebuild failed");
+		java.util.concurrent.ScheduledThreadPoolExecutor executor = new java.util.concurrent.ScheduledThreadPoolExecutor(1);
+		try {
+			CopyOnWriteIndexLookup map = new CopyOnWriteIndexLookup(initial, executor, 1, java.util.concurrent.TimeUnit.HOURS, 4,
+					orderedKeys -> {
+						if (failing.get()){
+							throw failure;
+						}
+						return IndexLookups.build(orderedKeys);
+					});
+			IndexLookup first = map.getSnapshot();
+			if (map.add(keys[1000]) != 1000 || map.add(keys[1000]) != 1000 || map.add(keys[5]) != 5){
+				throw new AssertionError("add index");
+			}
+			if (map.containsKey(keys[1000]) || map.stagedCount() != 1 || map.getSnapshot() != first){
+				throw new AssertionError("visible before flush");
+			}
+			map.flush();
+			if (map.getSnapshot() == first || map.getIndex(keys[1000]) != 1000 || map.stagedCount() != 0
+					|| first.containsKey(keys[1000]) || map.size() != 1001){
+				throw new AssertionError("flush");
+			}
+			for (int i = 1001 ; i < 1005 ; i++){
+				map.add(keys[i]);
+			}
+			awaitExecutor(executor);
+			if (map.getIndex(keys[1004]) != 1004 || map.stagedCount() != 0){
+				throw new AssertionError("threshold rebuild");
+			}
+			failing.set(true);
+			for (int i = 1005 ; i < 1009 ; i++){
+				map.add(keys[i]);
+			}
+			awaitExecutor(executor);
+			if (map.containsKey(keys[1005]) || map.getIndex(keys[1004]) != 1004 || map.stagedCount() != 4){
+				throw new AssertionError("lookups after a failed rebuild");
+			}
+			try {
+				map.add(keys[1009]);
+				throw new AssertionError("rebuild failure not thrown");
+			} catch (IllegalStateException expected){
+				if (expected.getCause() != failure){
+					throw new AssertionError("cause "+expected.getCause());
+				}
+			}
+			failing.set(false);
+			if (map.add(keys[1009]) != 1009){
+				throw new AssertionError("add after failure");
+			}
+			map.flush();
+			for (int i = 0 ; i < 1010 ; i++){
+				if (map.getIndex(keys[i]) != i){
+					throw new AssertionError("key "+i+" after retry");
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		System.out.println("CopyOnWriteIndexLookup OK");
+	}
+
+	/*
+	 * waits for the tasks already given to a single threaded executor
+	 */
+	private static void awaitExecutor(java.util.concurrent.ExecutorService executor){
+		try {
+			executor.submit(() -> {}).get();
+		} catch (InterruptedException | java.util.concurrent.ExecutionException e){
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Writes a FastMapV5 and a LargeFastMap to files, maps them, and
+	 * compares getIndex for every key and for absent keys, for every
+	 * HashSpreader. The null index set on a MappedFastMap must survive
+	 * serialization, though it is not written to the file.
+	 */
+	public static void checkMappedFastMap(){
+		try {
+			java.nio.file.Path file = java.nio.file.Files.createTempFile("fastmap", ".map");
+			try {
+				int[] keys = createUniqueArray(Short.MAX_VALUE*2);
+				int[] shortKeys = Arrays.copyOf(keys, 20000);
+				LargeFastMap largeMap = null;
+				for (HashSpreader spreader : HashSpreader.values()){
+					FastMapV5 fastMap = new FastMapV5(shortKeys, 1.0f, spreader);
+					MappedFastMap.write(fastMap, file);
+					compareMapped(fastMap, MappedFastMap.open(file), keys);
+					largeMap = new LargeFastMap(keys, 1.0f, spreader);
+					MappedFastMap.write(largeMap, file);
+					compareMapped(largeMap, MappedFastMap.open(file), keys);
+				}
+				MappedFastMap mapped = MappedFastMap.open(file);
+				mapped.setNullIndex(Integer.MIN_VALUE);
+				java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+				try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes)){
+					out.writeObject(mapped);
+				}
+				MappedFastMap read;
+				try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray()))){
+					read = (MappedFastMap) in.readObject();
+				}
+				if (read.getNullIndex() != Integer.MIN_VALUE || read.getIndex(0x7FFFFFFF) != Integer.MIN_VALUE){
+					throw new AssertionError("null index after serialization "+read.getNullIndex());
+				}
+				compareMapped(largeMap, read, keys);
+			} finally {
+				java.nio.file.Files.delete(file);
+			}
+		} catch (java.io.IOException | ClassNotFoundException e){
+			throw new AssertionError(e);
+		}
+		System.out.println("MappedFastMap OK");
+	}
+
+	private static void compareMapped(IndexLookup map, MappedFastMap mapped, int[] probes){
+		if (mapped.size() != map.size()){
+			throw new AssertionError("size "+mapped.size());
+		}
+		for (int probe : probes){
+			for (int key : new int[]{probe, ~probe}){
+				int expected = map.containsKey(key) ? map.getIndex(key) : mapped.getNullIndex();
+				if (mapped.getIndex(key) != expected){
+					throw new AssertionError(map.getClass().getSimpleName()+" key "+key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that ParallelFastMapBuilder gives maps equal to those of the
+	 * sequential constructors and Builders, for every HashSpreader, for
+	 * FastMapV5 and LargeFastMap sizes above SEQUENTIAL_THRESHOLD (so the
+	 * work is split), and for keys sharing their low bits, which give
+	 * long chains for the collision pass.
+	 */
+	public static void checkParallelBuilder(){
+		int[] clustered = new int[20000];
+		for (int i = 0 ; i < clustered.length ; i++){
+			clustered[i] = i*64;
+		}
+		int[][] keySets = {createUniqueArray(100), createUniqueArray(30000), clustered, createUniqueArray(100000)};
+		java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+		try {
+			for (int[] keys : keySets){
+				for (HashSpreader spreader : HashSpreader.values()){
+					IndexLookup parallel = ParallelFastMapBuilder.build(keys, 1.0f, spreader, pool);
+					IndexLookup constructed;
+					IndexLookup built;
+					if (IndexLookups.fitsShortLayout(keys.length)){
+						constructed = new FastMapV5(keys, 1.0f, spreader);
+						FastMapV5.Builder builder = FastMapV5.getBuilder(keys.length, spreader);
+						for (int i = 0 ; i < keys.length ; i++){
+							builder.put(keys[i], i);
+						}
+						built = builder.build();
+					} else {
+						constructed = new LargeFastMap(keys, 1.0f, spreader);
+						LargeFastMap.Builder builder = LargeFastMap.getBuilder(keys.length, spreader);
+						for (int i = 0 ; i < keys.length ; i++){
+							builder.put(keys[i], i);
+						}
+						built = builder.build();
+					}
+					if (!parallel.equals(constructed) || !parallel.equals(built)){
+						throw new AssertionError(keys.length+" keys, "+spreader+": parallel "
+								+parallel.getClass().getSimpleName()+" differs from sequential");
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println("ParallelFastMapBuilder OK");
+	}
+
+	/**
+	 * Checks LongFastMap, built from LongUniqueHash keys, from long keys and
+	 * with its Builder, for keys which differ only in their high 32 bits and
+	 * so fold to colliding buckets. Every key is looked up, as are keys that
+	 * are absent, and the primitive iteration is compared with the keys the
+	 * map was built from. Key -1 must be rejected.
+	 */
+	public static void checkLongFastMap(){
+		int[] low = createUniqueArray(5000);
+		long[] keys = new long[low.length*2];
+		for (int i = 0 ; i < low.length ; i++){
+			keys[2*i] = low[i] & 0xFFFFFFFFL;
+			keys[2*i+1] = ((long)(i+1) << 32) | (low[i] & 0xFFFFFFFFL);
+		}
+		LongUniqueHash[] hashes = new LongUniqueHash[keys.length];
+		for (int i = 0 ; i < keys.length ; i++){
+			long key = keys[i];
+			hashes[i] = () -> key;
+		}
+		for (HashSpreader spreader : HashSpreader.values()){
+			LongFastMap.Builder builder = LongFastMap.getBuilder(keys.length, spreader);
+			for (int i = 0 ; i < keys.length ; i++){
+				builder.put(keys[i], i);
+			}
+			LongFastMap built = builder.build();
+			LongFastMap constructed = new LongFastMap(keys, 1.0f, spreader);
+			if (!built.equals(constructed) || built.size() != keys.length){
+				throw new AssertionError(spreader+" builder differs from constructor");
+			}
+		}
+		LongFastMap map = new LongFastMap(hashes);
+		for (int i = 0 ; i < keys.length ; i++){
+			if (map.getIndex(keys[i]) != i || map.getIndex(hashes[i].longHashCode()) != i){
+				throw new AssertionError("key "+keys[i]);
+			}
+			if (map.containsKey(keys[i] + (1L << 48))){
+				throw new AssertionError("absent key "+(keys[i] + (1L << 48)));
+			}
+		}
+		if (!Arrays.equals(map.copyKeys(null), keys)){
+			throw new AssertionError("copyKeys");
+		}
+		long[] sum = new long[2];
+		map.forEachKey(key -> sum[0] += key);
+		map.forEachEntry((key, index) -> {
+			if (keys[index] != key){
+				throw new AssertionError("forEachEntry "+key);
+			}
+			sum[1] += key;
+		});
+		if (sum[0] != Arrays.stream(keys).sum() || sum[1] != sum[0]){
+			throw new AssertionError("forEachKey");
+		}
+		try {
+			new LongFastMap(new long[]{1, -1, 2});
+			throw new AssertionError("accepted -1");
+		} catch (IllegalArgumentException expected){
+		}
+		System.out.println("LongFastMap OK");
+	}
+
+	/**
+	 * Compares FastMapV5 (or LargeFastMap for larger sizes) with and without
+	 * a BloomFilteredIndexLookup in front, when 7 in 10 keys looked up are
+	 * absent, and prints the rates the filter measured. This is done for
+	 * well spread keys, and for keys sharing their low bits (multiples of
+	 * 64), which give FastMapV5 long chains for misses to walk.
+	 */
+	public static void runBloomTest(int size){
+		int[] keys = createUniqueArray(size*4);
+		int[] present = Arrays.copyOf(keys, size);
+		int lookups = 1<<22;
+		int[] probes = new int[lookups];
+		int[] clustered = new int[size];
+		int[] clusteredProbes = new int[lookups];
+		java.util.Random random = new java.util.Random(size);
+		for (int i = 0 ; i < size ; i++){
+			clustered[i] = i*64;
+		}
+		for (int i = 0 ; i < lookups ; i++){
+			boolean hit = random.nextInt(10) < 3;
+			probes[i] = hit ? present[random.nextInt(size)] : keys[size + random.nextInt(keys.length-size)];
+			clusteredProbes[i] = random.nextInt(size)*64 + (hit ? 0 : 1 + random.nextInt(63));
+		}
+		System.out.println("Well spread keys");
+		runBloomTest(present, probes);
+		System.out.println("Clustered keys");
+		runBloomTest(clustered, clusteredProbes);
+	}
+
+	private static void runBloomTest(int[] present, int[] probes){
+		int size = present.length;
+		IndexLookup map = IndexLookups.fitsShortLayout(size) ? new FastMapV5(present) : new LargeFastMap(present);
+		BloomFilteredIndexLookup filtered = new BloomFilteredIndexLookup(map, 0.01, false);
+		BloomFilteredIndexLookup counted = new BloomFilteredIndexLookup(map, 0.01, true);
+		IndexLookup[] indexLookups = {map, filtered, counted};
+		for (int repeat = 0 ; repeat < 3 ; repeat++){
+			for (IndexLookup indexLookup : indexLookups){
+				testMisses(indexLookup, probes, repeat==2);
+			}
+		}
+		System.out.println("Filter bits per key= "+(((double)filtered.getFilter().bitSize())/size)
+				+", expected false positive rate= "+filtered.getFilter().falsePositiveRate());
+		System.out.println(counted);
+	}
+
+	private static void testMisses(IndexLookup indexLookup, int[] probes, boolean print){
+		long begin = System.nanoTime();
+		int found = 0;
+		for (int i = 0 ; i< probes.length ; i++){
+			if (indexLookup.getIndex(probes[i])!=indexLookup.getNullIndex()){
+				found++;
+			}
+		}
+		long taken = System.nanoTime()-begin;
+		if (print){
+			System.out.println("  "+indexLookup.getClass().getSimpleName()+" miss heavy ("+found+" hits). Average lookup time= "
+					+(((double)taken)/probes.length)+" ns");
+		}
+	}
+
+	static void testRandomOrder(IndexLookup indexLookup, int[] probes, int[] expected, boolean print){
+		long begin = System.nanoTime();
+		for (int i = 0 ; i< probes.length ; i++){
+			if (indexLookup.getIndex(probes[i])!=expected[i]){
+				throw new AssertionError();
+			}
+		}
+		long taken = System.nanoTime()-begin;
+		if (print){
+			System.out.println("  "+indexLookup.getClass().getSimpleName()+" random order hits. Average lookup time= "
+					+(((double)taken)/probes.length)+" ns");
+		}
+	}
+
+	/**
+	 * Unique, well mixed keys without the cost of a checking set,
+	 * as PerfectHashMap.mix is a bijection.
+	 */
+	static int[] createUniqueArray(int size) {
+		int[] arr = new int[size];
+		int next = 0;
+		for (int i = 0 ; i<arr.length ; i++){
+			int key;
+			do{
+				key = PerfectHashMap.mix(next++);
+			} while (key == -1);
+			arr[i] = key;
+		}
+		return arr;
+	}
+
 	private static void testHashMap(Map<Integer, Integer> map, int[] testValues) {
 		long begin = System.nanoTime();
 		for (int i = 0 ; i< testValues.length ; i++){
@@ -96,7 +876,7 @@ public class FastMapTest {
 			}
 		}
 		long taken = System.nanoTime()-begin;
-		System.out.println("IndexLookup test complete. Average lookuptime= "+(taken/testValues.length)+" ns");
+		System.out.println(indexLookup.getClass().getSimpleName()+" test complete. Average lookuptime= "+(taken/testValues.length)+" ns");
 		
 	}
 
@@ -1,9 +1,9 @@
 package com.keatingfinance.datastruct;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
+import java.util.function.IntConsumer;
 
 import com.keatingfinance.datastruct.FastMapV5.Builder;
 
@@ -43,7 +43,12 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 	 * next, which gives a useful memory saving. Attempting to construct a 
 	 * larger map will throw an IllegalArgumentException.
 	 * 
-	 * If larger sizes are required an alternative implementation should be used.
+	 * -1 marks an empty bucket in the keys array, so it cannot be a key, and
+	 * is rejected with an IllegalArgumentException. IndexLookups.build(int[])
+	 * uses another layout for keys that include it.
+	 * 
+	 * If larger sizes are required LargeFastMap uses the same scheme with int
+	 * arrays, and IndexLookups.build(int[]) will choose between the two.
 	 * 
 	 * The inner Builder class allows the FastMap to be constructed without
 	 * specifying all of the data at once.
@@ -58,9 +63,12 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 
 		private static final long serialVersionUID = -3722502401180559177L;
 		final private static float MULTIPLIER = 1.0f;
+		final private static int MAX_LENGTH = Short.MAX_VALUE + 1;
 		final private int length;
 		final private int lengthMask;
+		final private int shift;
 		final private int size;
+		final private HashSpreader spreader;
 		
 		final private int[] keys;
 		final private short[] values;
@@ -104,40 +112,45 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 		 * 			sizes greater than Short.MAX_VALUE
 		 */
 		public FastMapV5(int[] orderedKeys, float multiplier){
-			if (multiplier < 1){
-				throw new IllegalArgumentException("Multiplier must be > 1 : "+multiplier);
-			}
-			if (orderedKeys.length >=Short.MAX_VALUE){
-				throw new IllegalArgumentException("Too big: "+orderedKeys.length+" Maximum size is "+Short.MAX_VALUE);
-			}
-			length=calculateLength(orderedKeys.length, multiplier);
-			lengthMask = length-1;
-			keys = new int[length];
-			values = new short[length];
-			next = new short[length];
-			Arrays.fill(keys,nullKey);
-			Arrays.fill(values,(short)nullIndex);
-			Arrays.fill(next,(short)nullIndex);
-			size = orderedKeys.length;
-			
-			List<Integer> collissionList = getCollsionList(orderedKeys);
-			
-			for (Integer collission : collissionList){
-				handleCollission(orderedKeys[collission],collission);
-			}
-
-			
+			this(orderedKeys, multiplier, HashSpreader.IDENTITY);
+		}
+		/**
+		 * Constructor, orderedKeys, multiplier and the hash spreader
+		 * used to choose each key's bucket. See HashSpreader.
+		 *
+		 * @param orderedKeys
+		 * @param multiplier
+		 * @param spreader
+		 */
+		public FastMapV5(int[] orderedKeys, float multiplier, HashSpreader spreader){
+			this(checkSize(orderedKeys.length), PigeonHoleTables.checkMultiplier(multiplier), spreader);
+			PigeonHoleTables.putAll(table(), orderedKeys);
 		}
 		public FastMapV5(int[] tickerIds) {
 			this(tickerIds,1.0f);
 		}
 		/**
-		 * For builder use only
+		 * For ParallelFastMapBuilder, which has already filled the tables.
+		 */
+		FastMapV5(int[] keys, short[] values, short[] next, int size, HashSpreader spreader){
+			this.length = keys.length;
+			this.lengthMask = length-1;
+			this.shift = HashSpreader.shiftFor(lengthMask);
+			this.spreader = spreader;
+			this.keys = keys;
+			this.values = values;
+			this.next = next;
+			this.size = size;
+		}
+		/**
+		 * An empty table, for the constructors and the builder
 		 * @param capacity
 		 */
-		private FastMapV5(int capacity){
-			length=calculateLength(capacity, 1.0f);
+		private FastMapV5(int capacity, float multiplier, HashSpreader spreader){
+			length=calculateLength(capacity, multiplier);
 			lengthMask = length-1;
+			shift = HashSpreader.shiftFor(lengthMask);
+			this.spreader = spreader;
 			keys = new int[length];
 			values = new short[length];
 			next = new short[length];
@@ -147,15 +160,11 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 			size = capacity;
 		}
 		
-		private List<Integer> getCollsionList(int[] orderedKeys) {
-			List<Integer> collissionList = new ArrayList<Integer>();
-			for (int i = 0 ; i < orderedKeys.length ; i++){
-				boolean added = putIfBucketEmpty(orderedKeys[i],i);
-				if (!added){
-					collissionList.add(i);
-				}
+		private static int checkSize(int size){
+			if (size >=Short.MAX_VALUE){
+				throw new IllegalArgumentException("Too big: "+size+" Maximum size is "+Short.MAX_VALUE);
 			}
-			return collissionList;
+			return size;
 		}
 		
 		public int size(){
@@ -167,78 +176,28 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 		 * @return
 		 */
 		public int deepestCollission() {
-			int deepest=0;
-			for (int i = 0 ; i < length ; i++){
-				int depth = 0;
-				if (next[i]!=-1){
-					int j = i ;
-					do {
-						depth++;
-						j = next[j];
-					} while (next[j]!=nullKey);
-				}
-				deepest=Math.max(depth, deepest);
-			}
-			return deepest;
+			return PigeonHoleTables.deepestCollission(table());
 		}
 
-		private void handleCollission(int key, int value) {
-		
-			int index = getEntryIndex(key);
-
-			while(next[index] != -1){
-				index=next[index];
-			}
-	
-			int newIndex = index;
-			
-			while(keys[newIndex]!=nullIndex){
-				newIndex++;
-				if (newIndex == length){
-					newIndex =0;
-				}
-			}
-			
-			next[index] = (short) newIndex;
-			keys[newIndex]=key;
-			values[newIndex]=(short) value;
-			
-		}
 /**
  * Calculate length of the backing array. Must be a power of two.
+ * 
+ * 2^15 is the largest power of two whose indices (0 to Short.MAX_VALUE)
+ * can all be stored in a short. Capping at Short.MAX_VALUE itself would
+ * not be a power of two, and would break lengthMask.
  * @param tickerLenth
  * @param multiplier
  * @return
  */
-		private int calculateLength(int tickerLenth, float multiplier) {
-			int  value=  Math.round((tickerLenth)*multiplier);
-			int capacity = 1;
-			while (capacity < value){
-				capacity <<= 1;
-			} 
-			return capacity < Short.MAX_VALUE ? capacity : Short.MAX_VALUE;
-			
+		static int calculateLength(int tickerLenth, float multiplier) {
+			return PigeonHoleTables.calculateLength(tickerLenth, multiplier, MAX_LENGTH);
 		}
 
-
-		private boolean putIfBucketEmpty(int key, int value) {
-			
-			int index = getEntryIndex(key);
-		
-			if (keys[index]!=nullKey){
-				if (keys[index]==key){
-					throw new IllegalArgumentException("Duplicated key:"+key);
-				}
-				return false;
-			}
-			keys[index] = key;
-			values[index] = (short) value;
-			return true;
-		}
-			
-
 		protected int getEntryIndex(int bitPattern){
-			return bitPattern & lengthMask;
+			if (spreader == HashSpreader.IDENTITY){
+				return bitPattern & lengthMask;
+			}
+			return spreader.spread(bitPattern, shift) & lengthMask;
 		}
 
 		public boolean containsKey(int key){
@@ -262,6 +221,10 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 		}
 
 
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
 		/**
 		 * Allows the caller to specify where "null" is contained
 		 * @param nullIndex
@@ -270,13 +233,88 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 			this.nullIndex=nullIndex;
 		}
 		
+		int tableLength(){
+			return length;
+		}
+
+		/**
+		 * Read access to the backing tables, so that other layouts,
+		 * e.g. MappedFastMap, can be produced from this map.
+		 */
+		PigeonHoleTable table(){
+			return new Table();
+		}
+
+		private final class Table implements PigeonHoleTable{
+			@Override public HashSpreader getSpreader(){
+				return spreader;
+			}
+			@Override public int tableLength(){
+				return length;
+			}
+			@Override public int keyAt(int slot){
+				return keys[slot];
+			}
+			@Override public int valueAt(int slot){
+				return values[slot];
+			}
+			@Override public int nextAt(int slot){
+				return next[slot];
+			}
+			@Override public int size(){
+				return size;
+			}
+			@Override public int getNullIndex(){
+				return nullIndex;
+			}
+			@Override public int entryIndex(int key){
+				return getEntryIndex(key);
+			}
+			@Override public void put(int slot, int key, int value){
+				keys[slot]=key;
+				values[slot]=(short) value;
+			}
+			@Override public void setNext(int slot, int next){
+				FastMapV5.this.next[slot]=(short) next;
+			}
+		}
+
+		public HashSpreader getSpreader(){
+			return spreader;
+		}
+
+		/**
+		 * A fuller picture than deepestCollission(), giving the histogram of
+		 * chain lengths, average probes for hits and misses and the load factor.
+		 * Walks every chain, so is intended for tuning rather than regular use.
+		 * @return
+		 */
+		public CollisionReport collisionReport(){
+			return CollisionReport.of(table());
+		}
+
+		/**
+		 * Maps serialized before HashSpreader was introduced have neither
+		 * a spreader nor a shift in the stream. They always used the low
+		 * bits of the key, so are given IDENTITY.
+		 */
+		private Object readResolve() throws ObjectStreamException{
+			if (spreader != null){
+				return this;
+			}
+			FastMapV5 map = new FastMapV5(keys, values, next, size, HashSpreader.IDENTITY);
+			map.nullIndex = nullIndex;
+			return map;
+		}
+
 		@Override public boolean equals(Object other){
 			if (this==other){
 				return true;
 			}
 			if (other instanceof FastMapV5){
 				FastMapV5 otherMap = ((FastMapV5)other);
-				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex){
+				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex
+						|| this.spreader!=otherMap.spreader){
 					return false;
 				}
 				return
@@ -290,44 +328,31 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 		@Override public int hashCode(){
 			return size;
 		}
+		/**
+		 * Walks the backing arrays, without boxing
+		 */
+		@Override
+		public void forEachKey(IntConsumer action){
+			PigeonHoleTables.forEachKey(table(), action);
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			PigeonHoleTables.forEachEntry(table(), action);
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			return PigeonHoleTables.copyKeys(table(), dest);
+		}
+
 		public Iterable<Integer> keyIterable(){
-			return new Iterable<Integer>() {
-				
-				@Override
-				public Iterator<Integer> iterator() {
-					return keyIterator();
-				}
-			};
+			return PigeonHoleTables.keyIterable(table());
 		}
 		
 		
 		public Iterator<Integer> keyIterator(){
-			return new Iterator<Integer>() {
-				int index = nextIndex(-1);
-				@Override
-				public boolean hasNext() {
-					return index < keys.length;
-				}
-
-				private int nextIndex(int index) {
-					do{ 
-						index++;
-					} while((index<keys.length && (keys[index])==nullKey));
-					return index;
-				}
-
-				@Override
-				public Integer next() {
-					int value = keys[index];
-					index = nextIndex(index);
-					return value;
-				}
-
-				@Override
-				public void remove() {
-					throw new UnsupportedOperationException();
-				}
-			};
+			return PigeonHoleTables.keyIterator(table());
 		}
 		/**
 		 * The builder allows the construction of the FastMap 
@@ -351,43 +376,44 @@ import com.keatingfinance.datastruct.FastMapV5.Builder;
 			 * has been called. Thus under normal circumstances it should not
 			 * be possible for a caller to view the map before it is built.
 			 */
-			return new FastMapV5(capacity).new Builder(capacity);
+			return getBuilder(capacity, HashSpreader.IDENTITY);
+		}
+
+		public static Builder getBuilder(int capacity, HashSpreader spreader) {
+			return new FastMapV5(capacity, MULTIPLIER, spreader).new Builder(capacity);
+		}
+
+		/**
+		 * Builds the map with whichever HashSpreader gives the
+		 * shortest chains for these keys, see HashSpreader.best
+		 * @param orderedKeys
+		 * @return
+		 */
+		public static FastMapV5 withBestSpreader(int[] orderedKeys){
+			HashSpreader spreader = HashSpreader.best(orderedKeys, calculateLength(orderedKeys.length, MULTIPLIER));
+			return new FastMapV5(orderedKeys, MULTIPLIER, spreader);
 		}
 		
 		public class Builder {
-			final private int[] collissionKeys;
-			final private int[] collissionValues;
-			int index=0;
+			final private PigeonHoleTables.Collisions collisions;
+			final private PigeonHoleTable table = table();
 			boolean complete=false;
 			private Builder(int maxSize){
-				collissionKeys=new int[maxSize];
-				collissionValues= new int[maxSize];
+				collisions = new PigeonHoleTables.Collisions(maxSize);
 			}
 			
 			public void put(int key, int value) {
 				if (complete){
 					throw new IllegalStateException("Map has already been built");
 				}
-				boolean added = putIfBucketEmpty(key, value);
-				if (!added){
-					collissionKeys[index]=key;
-					collissionValues[index]=value;
-					index++;
-				}
+				collisions.put(table, key, value);
 			}
 
 			public FastMapV5 build() {
-				final int collissionCount = index;
-				for (int i = 0 ; i< collissionCount; i++){
-					int key = collissionKeys[i];
-					int value = collissionValues[i];
-					handleCollission(key, value);
-				}
-				
+				collisions.resolve(table);
 				complete= true;
 				return FastMapV5.this;
 			}
 
 		}
 	}
-
@@ -0,0 +1,17 @@
+package com.keatingfinance.datastruct;
+/**
+ * Compares the control bytes of one SwissTableMap group (GROUP_WIDTH
+ * consecutive bytes) at once.
+ *
+ * Both methods return a mask with bit i set if byte base+i matched.
+ * match may also set bits for bytes that do not hold the tag, as the
+ * caller always compares the key, but must never miss a byte that does.
+ * matchEmpty must be exact.
+ *
+ * @author Oliver Keating
+ *
+ */
+interface GroupMatcher {
+	int match(byte[] ctrl, int base, byte tag);
+	int matchEmpty(byte[] ctrl, int base);
+}
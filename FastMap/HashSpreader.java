@@ -0,0 +1,158 @@
+package com.keatingfinance.datastruct;
+
+import java.util.Arrays;
+
+/**
+ * The bit mixing applied to a key before it is masked to find its
+ * bucket in FastMapV5 or LargeFastMap.
+ *
+ * IDENTITY uses the low bits of the key directly. This is the fastest,
+ * and is ideal when the keys are random or sequential, but keys that
+ * share their low bits (e.g. all multiples of 64) will all land in a
+ * fraction of the buckets and form long chains.
+ *
+ * MURMUR applies the Murmur3 32 bit finaliser, so every bit of the key
+ * affects the bucket. This costs a few multiplies and shifts per lookup.
+ *
+ * MULTIPLY_SHIFT multiplies by the golden ratio and takes the top bits
+ * (Fibonacci hashing). It is cheaper than MURMUR and deals well with
+ * keys that differ only in their high bits or that share low bits.
+ *
+ * best(int[], int) will choose the spreader giving the shortest chains
+ * for a given set of keys.
+ *
+ * Each spreader has a fixed id, which is what MappedFastMap writes to
+ * its files. Ids must never be changed or reused, new spreaders take
+ * the next unused id wherever they are declared.
+ *
+ * @author Oliver Keating
+ *
+ */
+public enum HashSpreader {
+	IDENTITY(0) {
+		@Override
+		int spread(int key, int shift) {
+			return key;
+		}
+	},
+	MURMUR(1) {
+		@Override
+		int spread(int key, int shift) {
+			key ^= key >>> 16;
+			key *= 0x85ebca6b;
+			key ^= key >>> 13;
+			key *= 0xc2b2ae35;
+			key ^= key >>> 16;
+			return key;
+		}
+	},
+	MULTIPLY_SHIFT(2) {
+		@Override
+		int spread(int key, int shift) {
+			return (key * 0x9e3779b9) >>> shift;
+		}
+	};
+
+	private final int id;
+
+	private HashSpreader(int id){
+		this.id=id;
+	}
+
+	/**
+	 * The stable id of the spreader, unlike ordinal() this does
+	 * not depend on the order of declaration.
+	 * @return
+	 */
+	public int getId(){
+		return id;
+	}
+
+	/**
+	 * @param id
+	 * @return the spreader with the given getId()
+	 * @throws IllegalArgumentException if there is none
+	 */
+	public static HashSpreader forId(int id){
+		for (HashSpreader spreader : values()){
+			if (spreader.id == id){
+				return spreader;
+			}
+		}
+		throw new IllegalArgumentException("Unknown HashSpreader id: "+id);
+	}
+
+	/**
+	 * @param key
+	 * @param shift - 32 minus the number of bits in the table mask.
+	 * @return the mixed key, to be masked by the caller
+	 */
+	abstract int spread(int key, int shift);
+
+	/**
+	 * The shift to use with spread for a table of a given mask
+	 * @param lengthMask
+	 * @return
+	 */
+	static int shiftFor(int lengthMask){
+		return Integer.numberOfLeadingZeros(lengthMask);
+	}
+
+	/**
+	 * The bucket of a key in a table, for use outside of the hot path.
+	 * @param key
+	 * @param lengthMask
+	 * @return
+	 */
+	public int entryIndex(int key, int lengthMask){
+		return spread(key, shiftFor(lengthMask)) & lengthMask;
+	}
+
+	/**
+	 * Chooses the spreader which gives the fewest expected probes
+	 * per hit for the keys, in a table of the given length.
+	 *
+	 * Only the number of keys in each bucket is counted, no map is built,
+	 * so this is cheap compared to building the map. Ties go to the
+	 * cheapest spreader, in declaration order.
+	 *
+	 * @param keys
+	 * @param length - the size of the table, a power of two
+	 * @return
+	 */
+	public static HashSpreader best(int[] keys, int length){
+		final int[] counts = new int[length];
+		HashSpreader best = IDENTITY;
+		long bestCost = Long.MAX_VALUE;
+		for (HashSpreader spreader : values()){
+			long cost = spreader.probeCost(keys, counts);
+			if (cost < bestCost){
+				bestCost = cost;
+				best = spreader;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The total probes needed to find every key once, counting only how
+	 * many keys share each home bucket.
+	 *
+	 * @param keys
+	 * @param counts - work space, its length is the length of the table
+	 * @return
+	 */
+	long probeCost(int[] keys, int[] counts){
+		final int lengthMask = counts.length-1;
+		Arrays.fill(counts, 0);
+		long cost = 0;
+		for (int key : keys){
+			/*
+			 * the nth key in a bucket needs n probes to find,
+			 * so the total is the sum of 1..count per bucket
+			 */
+			cost += ++counts[entryIndex(key, lengthMask)];
+		}
+		return cost;
+	}
+}
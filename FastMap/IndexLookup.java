@@ -1,6 +1,6 @@
 package com.keatingfinance.datastruct;
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.function.IntConsumer;
 
 
 /**
@@ -32,4 +32,83 @@ public interface IndexLookup extends Serializable{
 	boolean containsKey(int primaryKey);
 	Iterable<Integer> keyIterable();
 	int size();
+	/**
+	 * The value returned by getIndex when a key is not present.
+	 *
+	 * Defaults to -1, the convention of the implementations in this
+	 * package. Implementations that return something else must override
+	 * this, as getIndices uses it to count the misses.
+	 * @return
+	 */
+	default int getNullIndex(){
+		return -1;
+	}
+	/**
+	 * Bulk version of getIndex, for looking up a whole column of keys.
+	 *
+	 * For each i between from (inclusive) and to (exclusive)
+	 * 		out[i] = getIndex(primaryKeys[i]);
+	 * Absent keys are given the null index.
+	 *
+	 * The pigeon hole maps keep this default. Looking their keys up
+	 * four at a time, to overlap the loads of the home buckets, was
+	 * measured no faster than this loop, whether the table was in L2 or
+	 * in main memory, as the CPU already overlaps the independent
+	 * getIndex calls of successive iterations.
+	 *
+	 * @param primaryKeys - the keys to look up
+	 * @param from - first position, inclusive
+	 * @param to - last position, exclusive
+	 * @param out - receives the indices, at the same positions as the keys
+	 * @return the number of keys that were not found
+	 */
+	default int getIndices(int[] primaryKeys, int from, int to, int[] out){
+		final int nullIndex = getNullIndex();
+		int misses = 0;
+		for (int i = from ; i < to ; i++){
+			int index = getIndex(primaryKeys[i]);
+			out[i] = index;
+			if (index == nullIndex){
+				misses++;
+			}
+		}
+		return misses;
+	}
+	/**
+	 * Calls action with every key, in no particular order.
+	 *
+	 * Unlike keyIterable() this does not box the keys. The default
+	 * goes through keyIterable(), implementations backed by primitive
+	 * arrays override it to walk the arrays directly.
+	 * @param action
+	 */
+	default void forEachKey(IntConsumer action){
+		for (Integer key : keyIterable()){
+			action.accept(key);
+		}
+	}
+	/**
+	 * Calls action with every key and its index, in no particular order.
+	 * @param action
+	 */
+	default void forEachEntry(IntIntConsumer action){
+		forEachKey(key -> action.accept(key, getIndex(key)));
+	}
+	/**
+	 * Copies the keys into an array ordered by index, so that
+	 * 		dest[getIndex(key)] == key
+	 * which is the orderedKeys array the map was built from.
+	 *
+	 * Assumes the indices run from 0 to size()-1, as they do for
+	 * maps built from an orderedKeys array.
+	 *
+	 * @param dest - the array to fill, if it is null or shorter than
+	 * 			size() a new array is allocated instead.
+	 * @return the array holding the keys
+	 */
+	default int[] copyKeys(int[] dest){
+		final int[] keys = dest != null && dest.length >= size() ? dest : new int[size()];
+		forEachEntry((key, index) -> keys[index] = key);
+		return keys;
+	}
 }
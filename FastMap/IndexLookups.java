@@ -0,0 +1,245 @@
+package com.keatingfinance.datastruct;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Static factory methods for IndexLookup.
+ *
+ * Callers that do not care about the underlying layout should use
+ * these methods rather than constructing a map directly. build(int[])
+ * looks at the keys and picks one of the layouts below:
+ *
+ * 	DIRECT - DirectIndexLookup, a short[] offset table over the key range.
+ * 		Chosen when there are fewer than Short.MAX_VALUE keys and they
+ * 		fill at least MIN_DIRECT_DENSITY of the range between the
+ * 		smallest and largest, e.g. sequential ids.
+ * 	FAST_MAP_V5 - FastMapV5, for fewer than Short.MAX_VALUE keys.
+ * 	LARGE_FAST_MAP - LargeFastMap, for more keys.
+ * 	PERFECT_HASH - PerfectHashMap, when no HashSpreader gets the expected
+ * 		probes per hit of the pigeon hole maps under
+ * 		MAX_PIGEON_HOLE_PROBES.
+ *
+ * For the two pigeon hole maps the HashSpreader is chosen as well. The
+ * low bits of the keys are tried first (IDENTITY, the cheapest): if they
+ * spread the keys about as well as random keys would be spread, they
+ * are used, otherwise the spreader with the lowest cost is used, see
+ * HashSpreader.best.
+ *
+ * The pigeon hole maps use key -1 to mark an empty bucket, and reject it.
+ * Keys that include -1 are given DIRECT if they qualify, and otherwise
+ * PERFECT_HASH, whatever their spread.
+ *
+ * chooseLayout(int[]) gives the layout build would pick without building
+ * anything, and layoutOf(IndexLookup) the layout of an existing map.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class IndexLookups {
+
+	/**
+	 * The fraction of the key range that must be used
+	 * for the DIRECT layout to be chosen.
+	 */
+	public static final double MIN_DIRECT_DENSITY = 0.25;
+	/**
+	 * Keys spread at random over a full table average up to 1.5 probes
+	 * per hit; the low bits are used directly if they manage this.
+	 */
+	public static final double MAX_IDENTITY_PROBES = 1.6;
+	/**
+	 * Above this many expected probes per hit, even with the best
+	 * spreader, PERFECT_HASH (always one probe) is chosen.
+	 */
+	public static final double MAX_PIGEON_HOLE_PROBES = 2.5;
+
+	public enum Layout {
+		DIRECT,
+		FAST_MAP_V5,
+		LARGE_FAST_MAP,
+		PERFECT_HASH
+	}
+
+	private IndexLookups(){
+		//static methods only
+	}
+
+	public static IndexLookup build(UniqueHash[] orderedKeys){
+		return build(FastMapV5.toIntArray(orderedKeys));
+	}
+	/**
+	 * Builds the map best suited to the keys, see the class comment.
+	 *
+	 * @param orderedKeys - ordered in the sense that the index of
+	 * 			each key will become it's associated value.
+	 * @return an immutable IndexLookup
+	 */
+	public static IndexLookup build(int[] orderedKeys){
+		Choice choice = choose(orderedKeys);
+		return build(orderedKeys, choice.layout, choice.spreader);
+	}
+
+	/**
+	 * As build(int[]), but a LARGE_FAST_MAP is built with
+	 * ParallelFastMapBuilder on the given pool. The result is equal
+	 * to the map build(int[]) would return.
+	 *
+	 * @param orderedKeys
+	 * @param pool
+	 * @return an immutable IndexLookup
+	 */
+	public static IndexLookup build(int[] orderedKeys, ForkJoinPool pool){
+		Choice choice = choose(orderedKeys);
+		if (choice.layout == Layout.LARGE_FAST_MAP){
+			return ParallelFastMapBuilder.buildLargeFastMap(orderedKeys, 1.0f, choice.spreader, pool);
+		}
+		return build(orderedKeys, choice.layout, choice.spreader);
+	}
+
+	/**
+	 * Builds the keys in a given layout, choosing
+	 * the spreader as build(int[]) does.
+	 * @param orderedKeys
+	 * @param layout
+	 * @return
+	 * @throws IllegalArgumentException if the layout is FAST_MAP_V5 or
+	 * 		LARGE_FAST_MAP and a key is -1
+	 */
+	public static IndexLookup build(int[] orderedKeys, Layout layout){
+		HashSpreader spreader = HashSpreader.IDENTITY;
+		if (layout == Layout.FAST_MAP_V5 || layout == Layout.LARGE_FAST_MAP){
+			spreader = chooseHashed(orderedKeys).spreader;
+		}
+		return build(orderedKeys, layout, spreader);
+	}
+
+	private static IndexLookup build(int[] orderedKeys, Layout layout, HashSpreader spreader){
+		switch (layout){
+		case DIRECT:
+			return new DirectIndexLookup(orderedKeys);
+		case FAST_MAP_V5:
+			return new FastMapV5(orderedKeys, 1.0f, spreader);
+		case LARGE_FAST_MAP:
+			return new LargeFastMap(orderedKeys, 1.0f, spreader);
+		case PERFECT_HASH:
+			return new PerfectHashMap(orderedKeys);
+		default:
+			throw new IllegalArgumentException("Unknown layout: "+layout);
+		}
+	}
+
+	/**
+	 * The layout build(int[]) would use for these keys. Costs a few passes
+	 * over the keys, but does not build a map.
+	 * @param orderedKeys
+	 * @return
+	 */
+	public static Layout chooseLayout(int[] orderedKeys){
+		return choose(orderedKeys).layout;
+	}
+
+	private static final class Choice {
+		final Layout layout;
+		final HashSpreader spreader;
+		Choice(Layout layout, HashSpreader spreader){
+			this.layout=layout;
+			this.spreader=spreader;
+		}
+	}
+
+	private static Choice choose(int[] orderedKeys){
+		final int count = orderedKeys.length;
+		if (count > 0 && fitsShortLayout(count)){
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			for (int key : orderedKeys){
+				min = Math.min(min, key);
+				max = Math.max(max, key);
+			}
+			long range = ((long) max) - min + 1;
+			if (range <= DirectIndexLookup.MAX_RANGE && count >= range * MIN_DIRECT_DENSITY){
+				return new Choice(Layout.DIRECT, HashSpreader.IDENTITY);
+			}
+		}
+		if (containsEmptyMarker(orderedKeys)){
+			return new Choice(Layout.PERFECT_HASH, HashSpreader.IDENTITY);
+		}
+		return chooseHashed(orderedKeys);
+	}
+
+	/**
+	 * @return true if a key is the empty bucket marker of the pigeon
+	 * 		hole maps, which they cannot hold
+	 */
+	private static boolean containsEmptyMarker(int[] orderedKeys){
+		for (int key : orderedKeys){
+			if (key == PigeonHoleTables.EMPTY){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Chooses between the pigeon hole maps and PERFECT_HASH from the
+	 * expected probes per hit. The spreader returned is the one the
+	 * pigeon hole map should use, even if PERFECT_HASH is chosen.
+	 */
+	private static Choice chooseHashed(int[] orderedKeys){
+		final int count = orderedKeys.length;
+		final Layout pigeonHole = fitsShortLayout(count) ? Layout.FAST_MAP_V5 : Layout.LARGE_FAST_MAP;
+		if (count == 0){
+			return new Choice(pigeonHole, HashSpreader.IDENTITY);
+		}
+		final int length = pigeonHole == Layout.FAST_MAP_V5
+				? FastMapV5.calculateLength(count, 1.0f)
+				: LargeFastMap.calculateLength(count, 1.0f);
+		final int[] counts = new int[length];
+		HashSpreader spreader = HashSpreader.IDENTITY;
+		long cost = spreader.probeCost(orderedKeys, counts);
+		if (cost > count * MAX_IDENTITY_PROBES){
+			for (HashSpreader candidate : HashSpreader.values()){
+				long candidateCost = candidate.probeCost(orderedKeys, counts);
+				if (candidateCost < cost){
+					cost = candidateCost;
+					spreader = candidate;
+				}
+			}
+		}
+		if (cost > count * MAX_PIGEON_HOLE_PROBES){
+			return new Choice(Layout.PERFECT_HASH, spreader);
+		}
+		return new Choice(pigeonHole, spreader);
+	}
+
+	/**
+	 * @param indexLookup
+	 * @return the layout of a map built by this class, or null if it is
+	 * 		some other implementation
+	 */
+	public static Layout layoutOf(IndexLookup indexLookup){
+		if (indexLookup instanceof DirectIndexLookup){
+			return Layout.DIRECT;
+		}
+		if (indexLookup instanceof FastMapV5){
+			return Layout.FAST_MAP_V5;
+		}
+		if (indexLookup instanceof LargeFastMap){
+			return Layout.LARGE_FAST_MAP;
+		}
+		if (indexLookup instanceof PerfectHashMap){
+			return Layout.PERFECT_HASH;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if a map of this many keys can use
+	 * the short[] layout of FastMapV5
+	 * @param keyCount
+	 * @return
+	 */
+	public static boolean fitsShortLayout(int keyCount){
+		return keyCount < Short.MAX_VALUE;
+	}
+}
@@ -0,0 +1,264 @@
+package com.keatingfinance.datastruct;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import com.keatingfinance.util.SimpleDate;
+
+/**
+ * InstrumentDateIndex maps (instrument, date) pairs to row offsets in a
+ * time-series table, e.g. a table of daily prices.
+ *
+ * The pair is packed into a single int key:
+ *
+ * 	instrument slot: 11111111111111110000000000000000
+ * 	date:            00000000000000001111111111111111
+ *
+ * where the date is the 16 bit SimpleDate.compressedHash(). The instrument
+ * slot is a 16 bit number (0 to 65535) identifying the instrument, e.g. its
+ * index in a FastMapV5 of instrument ids. Each key is unique, so a FastMap
+ * style IndexLookup gives the row without building any key objects.
+ *
+ * The keys are also held sorted, which is also the order of (instrument,
+ * date), since the compressed hash of a later date is always larger.
+ * This allows the rows of one instrument between two dates to be
+ * iterated without allocating:
+ *
+ * 	int end = index.endPosition(slot, toDate);
+ * 	for (int p = index.firstPosition(slot, fromDate) ; p < end ; p++){
+ * 		int row = index.rowAt(p);
+ * 		short date = index.dateAt(p);
+ * 		...
+ * 	}
+ *
+ * Dates are restricted to the range of the compressed hash,
+ * SimpleDate.EARLIEST_SHORT to SimpleDate.LATEST_SHORT, and toKey rejects
+ * a later one. Besides being no date at all, 0xffff in the last slot would
+ * make key -1, the empty bucket marker of the pigeon hole maps.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class InstrumentDateIndex implements IndexLookup {
+
+	private static final long serialVersionUID = 3093311847761651873L;
+	public static final int MAX_INSTRUMENT_SLOT = 0xffff;
+	private static final int DATE_MASK = 0xffff;
+	private static final int LATEST_DATE = SimpleDate.LATEST_SHORT.compressedHash() & DATE_MASK;
+
+	private final IndexLookup lookup;
+	/*
+	 * keys in unsigned order, stored with the sign bit flipped
+	 * so that they can be compared as signed ints.
+	 */
+	private final int[] sortedKeys;
+	private final int[] sortedRows;
+
+	/**
+	 * @param instrumentSlots - the instrument slot of each row
+	 * @param compressedDates - the SimpleDate.compressedHash() of each row
+	 * @throws IllegalArgumentException if the arrays differ in length, a slot or
+	 * 		date is out of range, or a (slot, date) pair occurs twice
+	 */
+	public InstrumentDateIndex(int[] instrumentSlots, short[] compressedDates){
+		if (instrumentSlots.length != compressedDates.length){
+			throw new IllegalArgumentException("Lengths differ: "+instrumentSlots.length+" "+compressedDates.length);
+		}
+		final int rows = instrumentSlots.length;
+		int[] keys = new int[rows];
+		long[] keyAndRow = new long[rows];
+		for (int row = 0 ; row < rows ; row++){
+			int key = toKey(instrumentSlots[row], compressedDates[row]);
+			keys[row] = key;
+			keyAndRow[row] = (((long)(key ^ Integer.MIN_VALUE)) << 32) | row;
+		}
+		Arrays.sort(keyAndRow);
+		sortedKeys = new int[rows];
+		sortedRows = new int[rows];
+		for (int i = 0 ; i < rows ; i++){
+			sortedKeys[i] = (int) (keyAndRow[i] >> 32);
+			sortedRows[i] = (int) keyAndRow[i];
+			if (i > 0 && sortedKeys[i] == sortedKeys[i-1]){
+				int key = sortedKeys[i] ^ Integer.MIN_VALUE;
+				throw new IllegalArgumentException("Duplicated key: slot "+slotOf(key)
+						+" date "+SimpleDate.compressedHashToDate(dateOf(key)));
+			}
+		}
+		lookup = IndexLookups.build(keys);
+	}
+
+	public InstrumentDateIndex(int[] instrumentSlots, SimpleDate[] dates){
+		this(instrumentSlots, compress(dates));
+	}
+
+	private static short[] compress(SimpleDate[] dates) {
+		short[] compressed = new short[dates.length];
+		for (int i = 0 ; i < dates.length ; i++){
+			compressed[i] = dates[i].compressedHash();
+		}
+		return compressed;
+	}
+
+	/**
+	 * Packs an instrument slot and compressed date into a key
+	 * @param instrumentSlot - 0 to MAX_INSTRUMENT_SLOT
+	 * @param compressedDate - see SimpleDate.compressedHash(), no later
+	 * 			than SimpleDate.LATEST_SHORT
+	 * @return
+	 */
+	public static int toKey(int instrumentSlot, short compressedDate){
+		if ((compressedDate & DATE_MASK) > LATEST_DATE){
+			throw new IllegalArgumentException("Date out of range: "+Integer.toHexString(compressedDate & DATE_MASK));
+		}
+		return pack(instrumentSlot, compressedDate);
+	}
+
+	/**
+	 * As toKey, but any 16 bits are allowed for the date, for the bounds
+	 * of a range of positions
+	 */
+	private static int pack(int instrumentSlot, short compressedDate){
+		if (instrumentSlot < 0 || instrumentSlot > MAX_INSTRUMENT_SLOT){
+			throw new IllegalArgumentException("Instrument slot out of range: "+instrumentSlot);
+		}
+		return (instrumentSlot << 16) | (compressedDate & DATE_MASK);
+	}
+
+	public static int toKey(int instrumentSlot, SimpleDate date){
+		return toKey(instrumentSlot, date.compressedHash());
+	}
+
+	public static int slotOf(int key){
+		return key >>> 16;
+	}
+
+	public static short dateOf(int key){
+		return (short) key;
+	}
+
+	/**
+	 * @return the row of the instrument on the date, or the null index
+	 */
+	public int getRow(int instrumentSlot, short compressedDate){
+		return lookup.getIndex(toKey(instrumentSlot, compressedDate));
+	}
+
+	public int getRow(int instrumentSlot, SimpleDate date){
+		return getRow(instrumentSlot, date.compressedHash());
+	}
+
+	/**
+	 * @return the position of the instrument's first row on or after fromDate.
+	 */
+	public int firstPosition(int instrumentSlot, short fromDate){
+		return lowerBound(pack(instrumentSlot, fromDate) ^ Integer.MIN_VALUE);
+	}
+
+	public int firstPosition(int instrumentSlot, SimpleDate fromDate){
+		return firstPosition(instrumentSlot, fromDate.compressedHash());
+	}
+
+	/**
+	 * @return one past the position of the instrument's last row on or before toDate.
+	 */
+	public int endPosition(int instrumentSlot, short toDate){
+		int flippedKey = pack(instrumentSlot, toDate) ^ Integer.MIN_VALUE;
+		if (flippedKey == Integer.MAX_VALUE){
+			//the largest key there is, adding one would overflow
+			return sortedKeys.length;
+		}
+		return lowerBound(flippedKey + 1);
+	}
+
+	public int endPosition(int instrumentSlot, SimpleDate toDate){
+		return endPosition(instrumentSlot, toDate.compressedHash());
+	}
+
+	/**
+	 * @return the first position of the instrument, on any date
+	 */
+	public int firstPosition(int instrumentSlot){
+		return firstPosition(instrumentSlot, (short) 0);
+	}
+
+	/**
+	 * @return one past the last position of the instrument, on any date
+	 */
+	public int endPosition(int instrumentSlot){
+		return endPosition(instrumentSlot, (short) DATE_MASK);
+	}
+
+	/**
+	 * first position whose flipped key is >= flippedKey
+	 */
+	private int lowerBound(int flippedKey){
+		int low = 0;
+		int high = sortedKeys.length;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (sortedKeys[mid] < flippedKey){
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public int rowAt(int position){
+		return sortedRows[position];
+	}
+
+	public short dateAt(int position){
+		return dateOf(sortedKeys[position] ^ Integer.MIN_VALUE);
+	}
+
+	public int instrumentSlotAt(int position){
+		return slotOf(sortedKeys[position] ^ Integer.MIN_VALUE);
+	}
+
+	@Override
+	public int getIndex(int primaryKey) {
+		return lookup.getIndex(primaryKey);
+	}
+
+	@Override
+	public boolean containsKey(int primaryKey) {
+		return lookup.containsKey(primaryKey);
+	}
+
+	@Override
+	public int getIndices(int[] primaryKeys, int from, int to, int[] out) {
+		return lookup.getIndices(primaryKeys, from, to, out);
+	}
+
+	@Override
+	public void forEachKey(IntConsumer action) {
+		lookup.forEachKey(action);
+	}
+
+	@Override
+	public void forEachEntry(IntIntConsumer action) {
+		lookup.forEachEntry(action);
+	}
+
+	@Override
+	public int[] copyKeys(int[] dest) {
+		return lookup.copyKeys(dest);
+	}
+
+	@Override
+	public Iterable<Integer> keyIterable() {
+		return lookup.keyIterable();
+	}
+
+	@Override
+	public int size() {
+		return lookup.size();
+	}
+
+	@Override
+	public int getNullIndex() {
+		return lookup.getNullIndex();
+	}
+}
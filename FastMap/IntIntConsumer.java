@@ -0,0 +1,13 @@
+package com.keatingfinance.datastruct;
+
+/**
+ * A primitive (key, index) callback, so that the entries of an
+ * IndexLookup can be visited without boxing either int.
+ *
+ * @author Oliver Keating
+ *
+ */
+@FunctionalInterface
+public interface IntIntConsumer {
+	void accept(int key, int index);
+}
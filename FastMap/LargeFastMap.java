@@ -0,0 +1,343 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+	/**
+	 * LargeFastMap is the int-width sibling of FastMapV5.
+	 *
+	 * It uses exactly the same pigeon hole hashing scheme, shared with it in
+	 * PigeonHoleTables: collisions are resolved during construction by
+	 * placing keys into empty buckets and linking them through the "next"
+	 * array, so the map is immutable once built.
+	 *
+	 * The only difference is that the value and next arrays are int[] rather
+	 * than short[], so it is not limited to Short.MAX_VALUE keys. This costs
+	 * 4 extra bytes per bucket compared to FastMapV5, so for small maps
+	 * FastMapV5 should still be preferred. IndexLookups.build(int[]) will
+	 * select the appropriate implementation from the number of keys.
+	 *
+	 * The maximum number of keys is MAX_SIZE (2^30), the largest power of
+	 * two that can be used as the length of the backing arrays.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class LargeFastMap implements IndexLookup, Serializable{
+
+		private static final long serialVersionUID = 4815273065427335681L;
+		final public static int MAX_SIZE = 1 << 30;
+		final private static float MULTIPLIER = 1.0f;
+		final private int length;
+		final private int lengthMask;
+		final private int shift;
+		final private int size;
+		final private HashSpreader spreader;
+
+		final private int[] keys;
+		final private int[] values;
+		final private int[] next;
+
+		/*
+		 * this is what is returned if it does not exist,
+		 * as with primitives, we cannot simply return null
+		 * Can be changed to point somewhere else.
+		 *
+		 * -1 is a standard convention, though 0 might be used
+		 * if to point to an array index that contains the "null" value.
+		 */
+		private int nullIndex = -1;
+		private static int nullKey = -1;
+
+
+		public LargeFastMap(UniqueHash[] orderedKeys){
+			this(FastMapV5.toIntArray(orderedKeys), MULTIPLIER);
+		}
+		/**
+		 * Constructor, orderedKeys and multiplier.
+		 *
+		 * Multiplier allows some tuning in space-time tradeoff. Higher
+		 * values reduce collisions, therefore lookup time, but will
+		 * result in a larger map. Due to the way this implementation
+		 * works, the multiplier must be at least 1
+		 *
+		 * @param orderedKeys - ordered in the sense that the index of
+		 * 			each key will become it's associated value.
+		 * 			Must have a length <= MAX_SIZE
+		 * @param multiplier - must be at least 1.
+		 * 			Will be ignored if it would result in backing array
+		 * 			sizes greater than MAX_SIZE
+		 */
+		public LargeFastMap(int[] orderedKeys, float multiplier){
+			this(orderedKeys, multiplier, HashSpreader.IDENTITY);
+		}
+		/**
+		 * Constructor, orderedKeys, multiplier and the hash spreader
+		 * used to choose each key's bucket. See HashSpreader.
+		 *
+		 * @param orderedKeys
+		 * @param multiplier
+		 * @param spreader
+		 */
+		public LargeFastMap(int[] orderedKeys, float multiplier, HashSpreader spreader){
+			this(PigeonHoleTables.checkSize(orderedKeys.length, MAX_SIZE), PigeonHoleTables.checkMultiplier(multiplier), spreader);
+			PigeonHoleTables.putAll(table(), orderedKeys);
+		}
+		public LargeFastMap(int[] orderedKeys) {
+			this(orderedKeys,MULTIPLIER);
+		}
+		/**
+		 * For ParallelFastMapBuilder, which has already filled the tables.
+		 */
+		LargeFastMap(int[] keys, int[] values, int[] next, int size, HashSpreader spreader){
+			this.length = keys.length;
+			this.lengthMask = length-1;
+			this.shift = HashSpreader.shiftFor(lengthMask);
+			this.spreader = spreader;
+			this.keys = keys;
+			this.values = values;
+			this.next = next;
+			this.size = size;
+		}
+		/**
+		 * An empty table, for the constructors and the builder
+		 * @param capacity
+		 */
+		private LargeFastMap(int capacity, float multiplier, HashSpreader spreader){
+			length=calculateLength(capacity, multiplier);
+			lengthMask = length-1;
+			shift = HashSpreader.shiftFor(lengthMask);
+			this.spreader = spreader;
+			keys = new int[length];
+			values = new int[length];
+			next = new int[length];
+			Arrays.fill(keys,nullKey);
+			Arrays.fill(values,nullIndex);
+			Arrays.fill(next,-1);
+			size = capacity;
+		}
+
+		public int size(){
+			return size;
+		}
+		/**
+		 * Returns the maximum value of keys
+		 * in the same bucket.
+		 * @return
+		 */
+		public int deepestCollission() {
+			return PigeonHoleTables.deepestCollission(table());
+		}
+
+/**
+ * Calculate length of the backing array. Must be a power of two.
+ * @param keyLength
+ * @param multiplier
+ * @return
+ */
+		static int calculateLength(int keyLength, float multiplier) {
+			return PigeonHoleTables.calculateLength(keyLength, multiplier, MAX_SIZE);
+		}
+
+		protected int getEntryIndex(int bitPattern){
+			if (spreader == HashSpreader.IDENTITY){
+				return bitPattern & lengthMask;
+			}
+			return spreader.spread(bitPattern, shift) & lengthMask;
+		}
+
+		public boolean containsKey(int key){
+			return getIndex(key)!=nullIndex;
+		}
+
+		public int getIndex(int key){
+			int index = getEntryIndex(key);
+
+			do{
+
+				if (key == keys[index]){
+					return values[index];
+				}
+
+				index = next[index];
+
+			} while (index!=-1);
+
+			return nullIndex;
+		}
+
+
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		int tableLength(){
+			return length;
+		}
+
+		/**
+		 * Read access to the backing tables, so that other layouts,
+		 * e.g. MappedFastMap, can be produced from this map.
+		 */
+		PigeonHoleTable table(){
+			return new Table();
+		}
+
+		private final class Table implements PigeonHoleTable{
+			@Override public HashSpreader getSpreader(){
+				return spreader;
+			}
+			@Override public int tableLength(){
+				return length;
+			}
+			@Override public int keyAt(int slot){
+				return keys[slot];
+			}
+			@Override public int valueAt(int slot){
+				return values[slot];
+			}
+			@Override public int nextAt(int slot){
+				return next[slot];
+			}
+			@Override public int size(){
+				return size;
+			}
+			@Override public int getNullIndex(){
+				return nullIndex;
+			}
+			@Override public int entryIndex(int key){
+				return getEntryIndex(key);
+			}
+			@Override public void put(int slot, int key, int value){
+				keys[slot]=key;
+				values[slot]=value;
+			}
+			@Override public void setNext(int slot, int next){
+				LargeFastMap.this.next[slot]=next;
+			}
+		}
+
+		public HashSpreader getSpreader(){
+			return spreader;
+		}
+
+		/**
+		 * A fuller picture than deepestCollission(), giving the histogram of
+		 * chain lengths, average probes for hits and misses and the load factor.
+		 * Walks every chain, so is intended for tuning rather than regular use.
+		 * @return
+		 */
+		public CollisionReport collisionReport(){
+			return CollisionReport.of(table());
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof LargeFastMap){
+				LargeFastMap otherMap = ((LargeFastMap)other);
+				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex
+						|| this.spreader!=otherMap.spreader){
+					return false;
+				}
+				return
+						Arrays.equals(this.keys, otherMap.keys) &&
+						Arrays.equals(this.values, otherMap.values) &&
+						Arrays.equals(this.next, otherMap.next);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return size;
+		}
+		/**
+		 * Walks the backing arrays, without boxing
+		 */
+		@Override
+		public void forEachKey(IntConsumer action){
+			PigeonHoleTables.forEachKey(table(), action);
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			PigeonHoleTables.forEachEntry(table(), action);
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			return PigeonHoleTables.copyKeys(table(), dest);
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return PigeonHoleTables.keyIterable(table());
+		}
+
+
+		public Iterator<Integer> keyIterator(){
+			return PigeonHoleTables.keyIterator(table());
+		}
+		/**
+		 * The builder allows the construction of the LargeFastMap
+		 * inserting one key-value pair at a time, in the same way
+		 * as FastMapV5.getBuilder(int).
+		 *
+		 * Once build() has been called, the map is returned, and
+		 * further attempts to call put() will result in an IllegalStateException,
+		 * preserving the maps immutability.
+		 *
+		 * @param capacity - the maximum number of pairs to be stored.
+		 * @return a builder
+		 */
+		public static Builder getBuilder(int capacity) {
+			return getBuilder(capacity, HashSpreader.IDENTITY);
+		}
+
+		public static Builder getBuilder(int capacity, HashSpreader spreader) {
+			return new LargeFastMap(PigeonHoleTables.checkSize(capacity, MAX_SIZE), MULTIPLIER, spreader).new Builder(capacity);
+		}
+
+		/**
+		 * Builds the map with whichever HashSpreader gives the
+		 * shortest chains for these keys, see HashSpreader.best
+		 * @param orderedKeys
+		 * @return
+		 */
+		public static LargeFastMap withBestSpreader(int[] orderedKeys){
+			HashSpreader spreader = HashSpreader.best(orderedKeys, calculateLength(orderedKeys.length, MULTIPLIER));
+			return new LargeFastMap(orderedKeys, MULTIPLIER, spreader);
+		}
+
+		public class Builder {
+			final private PigeonHoleTables.Collisions collisions;
+			final private PigeonHoleTable table = table();
+			boolean complete=false;
+			private Builder(int maxSize){
+				collisions = new PigeonHoleTables.Collisions(maxSize);
+			}
+
+			public void put(int key, int value) {
+				if (complete){
+					throw new IllegalStateException("Map has already been built");
+				}
+				collisions.put(table, key, value);
+			}
+
+			public LargeFastMap build() {
+				collisions.resolve(table);
+				complete= true;
+				return LargeFastMap.this;
+			}
+
+		}
+	}
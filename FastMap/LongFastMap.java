@@ -0,0 +1,379 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+
+	/**
+	 * LongFastMap is the 64 bit key version of LargeFastMap, implementing
+	 * LongIndexLookup.
+	 *
+	 * The layout is the same immutable pigeon hole scheme as FastMapV5:
+	 * primitive keys, values and next arrays, with collisions resolved at
+	 * construction by linking them through the next array. Only the keys
+	 * array is long[]; values and next are int[], as for LargeFastMap.
+	 *
+	 * The bucket of a key is found by folding the two halves of the key
+	 * together with xor, then applying the HashSpreader as for the int maps.
+	 * Keys that differ only in their high 32 bits (e.g. a date packed above
+	 * an instrument id) therefore still land in different buckets.
+	 *
+	 * -1 is used to mark empty buckets, and so cannot be used as a key. It
+	 * is rejected with an IllegalArgumentException, as by FastMapV5.
+	 *
+	 * Collisions are placed with PigeonHoleTables.EmptySlots, as for the
+	 * int maps, so a nearly full table is not quadratic to build.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class LongFastMap implements LongIndexLookup, Serializable{
+
+		private static final long serialVersionUID = -6385720917146604211L;
+		final public static int MAX_SIZE = LargeFastMap.MAX_SIZE;
+		final private static float MULTIPLIER = 1.0f;
+		final private int length;
+		final private int lengthMask;
+		final private int shift;
+		/*
+		 * only set by a Builder before the map is returned to the caller
+		 */
+		private int size;
+		final private HashSpreader spreader;
+
+		final private long[] keys;
+		final private int[] values;
+		final private int[] next;
+
+		/*
+		 * this is what is returned if it does not exist,
+		 * as with primitives, we cannot simply return null
+		 * Can be changed to point somewhere else.
+		 */
+		private int nullIndex = -1;
+		private static long nullKey = -1L;
+
+
+		public LongFastMap(LongUniqueHash[] orderedKeys){
+			this(toLongArray(orderedKeys), MULTIPLIER);
+		}
+		public static long[] toLongArray(LongUniqueHash[] orderedKeys) {
+			long[] arr = new long[orderedKeys.length];
+			for (int i =0;i<arr.length;i++){
+				arr[i]=orderedKeys[i].longHashCode();
+			}
+			return arr;
+		}
+		public LongFastMap(long[] orderedKeys) {
+			this(orderedKeys,MULTIPLIER);
+		}
+		public LongFastMap(long[] orderedKeys, float multiplier){
+			this(orderedKeys, multiplier, HashSpreader.IDENTITY);
+		}
+		/**
+		 * Constructor, orderedKeys, multiplier and the hash spreader.
+		 *
+		 * @param orderedKeys - ordered in the sense that the index of
+		 * 			each key will become it's associated value.
+		 * 			Must have a length <= MAX_SIZE
+		 * @param multiplier - must be at least 1, see FastMapV5
+		 * @param spreader - applied to the folded key, see HashSpreader
+		 */
+		public LongFastMap(long[] orderedKeys, float multiplier, HashSpreader spreader){
+			this(PigeonHoleTables.checkSize(orderedKeys.length, MAX_SIZE), PigeonHoleTables.checkMultiplier(multiplier), spreader);
+			size = orderedKeys.length;
+
+			for (int i = 0 ; i < orderedKeys.length ; i++){
+				putIfBucketEmpty(orderedKeys[i],i);
+			}
+			//as FastMapV5, the collisions are the keys not in their home bucket
+			PigeonHoleTables.EmptySlots emptySlots = null;
+			for (int i = 0 ; i < orderedKeys.length ; i++){
+				long key = orderedKeys[i];
+				if (keys[getEntryIndex(key)]!=key){
+					if (emptySlots == null){
+						emptySlots = PigeonHoleTables.EmptySlots.of(keys);
+					}
+					handleCollission(emptySlots, key, i);
+				}
+			}
+		}
+		/**
+		 * An empty table, for the constructors and the builder
+		 */
+		private LongFastMap(int capacity, float multiplier, HashSpreader spreader){
+			length=LargeFastMap.calculateLength(capacity, multiplier);
+			lengthMask = length-1;
+			shift = HashSpreader.shiftFor(lengthMask);
+			this.spreader = spreader;
+			keys = new long[length];
+			values = new int[length];
+			next = new int[length];
+			Arrays.fill(keys,nullKey);
+			Arrays.fill(values,nullIndex);
+			Arrays.fill(next,-1);
+		}
+
+		public int size(){
+			return size;
+		}
+
+		/**
+		 * Returns the maximum number of keys
+		 * in the same chain.
+		 * @return
+		 */
+		public int deepestCollission() {
+			int deepest=0;
+			for (int i = 0 ; i < length ; i++){
+				int depth = 0;
+				int j = i;
+				while (next[j]!=-1){
+					depth++;
+					j = next[j];
+				}
+				deepest=Math.max(depth, deepest);
+			}
+			return deepest;
+		}
+
+		/**
+		 * As PigeonHoleTables.handleCollission, for long keys
+		 */
+		private void handleCollission(PigeonHoleTables.EmptySlots emptySlots, long key, int value) {
+
+			int index = getEntryIndex(key);
+
+			while(true){
+				if (keys[index]==key){
+					throw new IllegalArgumentException("Duplicated key:"+key);
+				}
+				if (next[index] == -1){
+					break;
+				}
+				index=next[index];
+			}
+
+			int newIndex = emptySlots.take(index);
+
+			next[index] = newIndex;
+			keys[newIndex]=key;
+			values[newIndex]=value;
+
+		}
+
+		private boolean putIfBucketEmpty(long key, int value) {
+			if (key == nullKey){
+				throw new IllegalArgumentException("Key "+nullKey+" marks an empty bucket and cannot be held");
+			}
+
+			int index = getEntryIndex(key);
+
+			if (keys[index]!=nullKey){
+				if (keys[index]==key){
+					throw new IllegalArgumentException("Duplicated key:"+key);
+				}
+				return false;
+			}
+			keys[index] = key;
+			values[index] = value;
+			return true;
+		}
+
+
+		protected int getEntryIndex(long key){
+			int folded = (int) (key ^ (key >>> 32));
+			if (spreader == HashSpreader.IDENTITY){
+				return folded & lengthMask;
+			}
+			return spreader.spread(folded, shift) & lengthMask;
+		}
+
+		public boolean containsKey(long key){
+			return getIndex(key)!=nullIndex;
+		}
+
+		public int getIndex(long key){
+			int index = getEntryIndex(key);
+
+			do{
+
+				if (key == keys[index]){
+					return values[index];
+				}
+
+				index = next[index];
+
+			} while (index!=-1);
+
+			return nullIndex;
+		}
+
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		public HashSpreader getSpreader(){
+			return spreader;
+		}
+
+		/**
+		 * Walks the keys array, without boxing
+		 */
+		@Override
+		public void forEachKey(LongConsumer action){
+			for (int slot = 0 ; slot < length ; slot++){
+				if (keys[slot]!=nullKey){
+					action.accept(keys[slot]);
+				}
+			}
+		}
+
+		@Override
+		public void forEachEntry(LongIntConsumer action){
+			for (int slot = 0 ; slot < length ; slot++){
+				if (keys[slot]!=nullKey){
+					action.accept(keys[slot], values[slot]);
+				}
+			}
+		}
+
+		@Override
+		public long[] copyKeys(long[] dest){
+			long[] orderedKeys = dest != null && dest.length >= size ? dest : new long[size];
+			for (int slot = 0 ; slot < length ; slot++){
+				if (keys[slot]!=nullKey){
+					orderedKeys[values[slot]] = keys[slot];
+				}
+			}
+			return orderedKeys;
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof LongFastMap){
+				LongFastMap otherMap = ((LongFastMap)other);
+				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex
+						|| this.spreader!=otherMap.spreader){
+					return false;
+				}
+				return
+						Arrays.equals(this.keys, otherMap.keys) &&
+						Arrays.equals(this.values, otherMap.values) &&
+						Arrays.equals(this.next, otherMap.next);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return size;
+		}
+		public Iterable<Long> keyIterable(){
+			return new Iterable<Long>() {
+
+				@Override
+				public Iterator<Long> iterator() {
+					return keyIterator();
+				}
+			};
+		}
+
+
+		public Iterator<Long> keyIterator(){
+			return new Iterator<Long>() {
+				int index = nextIndex(-1);
+				@Override
+				public boolean hasNext() {
+					return index < keys.length;
+				}
+
+				private int nextIndex(int index) {
+					do{
+						index++;
+					} while((index<keys.length && (keys[index])==nullKey));
+					return index;
+				}
+
+				@Override
+				public Long next() {
+					long value = keys[index];
+					index = nextIndex(index);
+					return value;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		/**
+		 * The builder allows the construction of the LongFastMap
+		 * inserting one key-value pair at a time, in the same way
+		 * as FastMapV5.getBuilder(int).
+		 *
+		 * @param capacity - the maximum number of pairs to be stored.
+		 * @return a builder
+		 */
+		public static Builder getBuilder(int capacity) {
+			return getBuilder(capacity, HashSpreader.IDENTITY);
+		}
+
+		public static Builder getBuilder(int capacity, HashSpreader spreader) {
+			return new LongFastMap(PigeonHoleTables.checkSize(capacity, MAX_SIZE), MULTIPLIER, spreader).new Builder(capacity);
+		}
+
+		public class Builder {
+			final private long[] collissionKeys;
+			final private int[] collissionValues;
+			int index=0;
+			int count=0;
+			boolean complete=false;
+			private Builder(int maxSize){
+				collissionKeys=new long[maxSize];
+				collissionValues= new int[maxSize];
+			}
+
+			public void put(long key, int value) {
+				if (complete){
+					throw new IllegalStateException("Map has already been built");
+				}
+				if (count == collissionKeys.length){
+					throw new IllegalStateException("Capacity "+collissionKeys.length+" exceeded");
+				}
+				count++;
+				boolean added = putIfBucketEmpty(key, value);
+				if (!added){
+					collissionKeys[index]=key;
+					collissionValues[index]=value;
+					index++;
+				}
+			}
+
+			public LongFastMap build() {
+				final int collissionCount = index;
+				if (collissionCount > 0){
+					PigeonHoleTables.EmptySlots emptySlots = PigeonHoleTables.EmptySlots.of(keys);
+					for (int i = 0 ; i< collissionCount; i++){
+						handleCollission(emptySlots, collissionKeys[i], collissionValues[i]);
+					}
+				}
+
+				complete= true;
+				size = count;
+				return LongFastMap.this;
+			}
+
+		}
+	}
+
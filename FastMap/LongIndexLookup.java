@@ -0,0 +1,87 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.function.LongConsumer;
+
+
+/**
+ * The 64 bit key equivalent of IndexLookup.
+ * 
+ * Provides a 1-1 link from a given long primary key to an index,
+ * for keys that do not fit into an int, such as exchange order ids
+ * or keys packed from two ints. For any given
+ * 		long primaryKey = primaryKeys[index];
+ * this provides a fast way to reverse that process, namely
+ * 		int index = longFastMap.getIndex(primaryKey);
+ * 
+ * As with IndexLookup, no methods are provided to modify the
+ * map after construction.
+ * 
+ * @author Keating Finance
+ *
+ */
+public interface LongIndexLookup extends Serializable{
+	int getIndex(long primaryKey);
+	boolean containsKey(long primaryKey);
+	Iterable<Long> keyIterable();
+	int size();
+	/**
+	 * The value returned by getIndex when a key is not present.
+	 * @return
+	 */
+	int getNullIndex();
+	/**
+	 * Bulk version of getIndex, see IndexLookup.getIndices
+	 *
+	 * @param primaryKeys - the keys to look up
+	 * @param from - first position, inclusive
+	 * @param to - last position, exclusive
+	 * @param out - receives the indices, at the same positions as the keys
+	 * @return the number of keys that were not found
+	 */
+	default int getIndices(long[] primaryKeys, int from, int to, int[] out){
+		final int nullIndex = getNullIndex();
+		int misses = 0;
+		for (int i = from ; i < to ; i++){
+			int index = getIndex(primaryKeys[i]);
+			out[i] = index;
+			if (index == nullIndex){
+				misses++;
+			}
+		}
+		return misses;
+	}
+	/**
+	 * Calls action with every key, in no particular order, without
+	 * boxing, see IndexLookup.forEachKey
+	 * @param action
+	 */
+	default void forEachKey(LongConsumer action){
+		for (Long key : keyIterable()){
+			action.accept(key);
+		}
+	}
+	/**
+	 * Calls action with every key and its index, in no particular order.
+	 * @param action
+	 */
+	default void forEachEntry(LongIntConsumer action){
+		forEachKey(key -> action.accept(key, getIndex(key)));
+	}
+	/**
+	 * Copies the keys into an array ordered by index, so that
+	 * 		dest[getIndex(key)] == key
+	 * which is the orderedKeys array the map was built from.
+	 *
+	 * Assumes the indices run from 0 to size()-1, as they do for
+	 * maps built from an orderedKeys array.
+	 *
+	 * @param dest - the array to fill, if it is null or shorter than
+	 * 			size() a new array is allocated instead.
+	 * @return the array holding the keys
+	 */
+	default long[] copyKeys(long[] dest){
+		final long[] keys = dest != null && dest.length >= size() ? dest : new long[size()];
+		forEachEntry((key, index) -> keys[index] = key);
+		return keys;
+	}
+}
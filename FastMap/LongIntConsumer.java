@@ -0,0 +1,13 @@
+package com.keatingfinance.datastruct;
+
+/**
+ * A primitive (key, index) callback, so that the entries of a
+ * LongIndexLookup can be visited without boxing the key or the index.
+ *
+ * @author Oliver Keating
+ *
+ */
+@FunctionalInterface
+public interface LongIntConsumer {
+	void accept(long key, int index);
+}
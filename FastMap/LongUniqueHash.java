@@ -0,0 +1,20 @@
+package com.keatingfinance.datastruct;
+/**
+ * The 64 bit equivalent of UniqueHash.
+ * 
+ * The number returned by longHashCode() must be a unique primary
+ * key, guaranteeing that if
+ * 	a.longHashCode() == b.longHashCode()
+ * then necessarily
+ * 	a.equals(b) == true
+ * 
+ * This allows objects whose identity does not fit into 32 bits
+ * (e.g. an instrument id combined with a date) to be used as keys
+ * of a LongFastMap without any equals checks.
+ * 
+ * @author Oliver Keating
+ *
+ */
+public interface LongUniqueHash {
+	long longHashCode();
+}
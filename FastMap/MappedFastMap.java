@@ -0,0 +1,295 @@
+package com.keatingfinance.datastruct;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+/**
+ * MappedFastMap is a read-only IndexLookup that serves lookups directly
+ * from a memory mapped file, rather than from arrays on the heap.
+ *
+ * The file is written once from an existing FastMapV5 or LargeFastMap,
+ * and can then be opened by any number of processes. Opening does not
+ * read or rebuild anything, the operating system pages the tables in
+ * as they are used, and all processes on the machine share the same
+ * page cache copy of the file.
+ *
+ * The file holds the same keys, values and next tables as the map it
+ * was written from, so lookups follow exactly the same path. All values
+ * are little-endian. The layout is:
+ *
+ * 	Header (32 bytes)
+ * 		0	int		MAGIC (0x464D4150, "FMAP")
+ * 		4	int		VERSION (1)
+ * 		8	int		size, the number of keys
+ * 		12	int		length, the number of slots. A power of two.
+ * 		16	int		nullIndex
+ * 		20	int		valueWidth, the bytes per value and next entry (2 or 4)
+ * 		24	int		id of the HashSpreader, see HashSpreader.getId()
+ * 		28	4 bytes	reserved, written as zero
+ * 	keys	length * 4 bytes			key of each slot, -1 if empty
+ * 	values	length * valueWidth bytes	value (index) of each slot
+ * 	next	length * valueWidth bytes	slot of the next key in the chain, -1 at the end
+ *
+ * A FastMapV5 is written with a valueWidth of 2, a LargeFastMap with 4.
+ *
+ * Because a single MappedByteBuffer is limited to 2GB, a file can hold
+ * at most around 2^27 slots.
+ *
+ * Serializing a MappedFastMap only writes the path of the file and the
+ * null index, which setNullIndex may have changed from the one in the
+ * header. The file is re-opened when deserialized.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class MappedFastMap implements IndexLookup {
+
+	private static final long serialVersionUID = -1849325107262310947L;
+	public static final int MAGIC = 0x464D4150;
+	public static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	private static int nullKey = -1;
+
+	private final String path;
+	private final transient ByteBuffer buffer;
+	private final transient int size;
+	private final transient int length;
+	private final transient int lengthMask;
+	private final transient int shift;
+	private final transient HashSpreader spreader;
+	private final transient int valueWidth;
+	private final transient int valuesOffset;
+	private final transient int nextOffset;
+	private int nullIndex;
+
+	private MappedFastMap(Path path, ByteBuffer buffer){
+		this.path = path.toString();
+		this.buffer=buffer;
+		if (buffer.getInt(0)!=MAGIC){
+			throw new IllegalArgumentException("Not a FastMap file: "+path);
+		}
+		if (buffer.getInt(4)!=VERSION){
+			throw new IllegalArgumentException("Unsupported version "+buffer.getInt(4)+": "+path);
+		}
+		size = buffer.getInt(8);
+		length = buffer.getInt(12);
+		lengthMask = length-1;
+		nullIndex = buffer.getInt(16);
+		valueWidth = buffer.getInt(20);
+		int spreaderId = buffer.getInt(24);
+		if (Integer.bitCount(length)!=1 || (valueWidth!=2 && valueWidth!=4)){
+			throw new IllegalArgumentException("Corrupt header, length="+length+" valueWidth="+valueWidth+": "+path);
+		}
+		try {
+			spreader = HashSpreader.forId(spreaderId);
+		} catch (IllegalArgumentException e){
+			throw new IllegalArgumentException("Corrupt header, spreader="+spreaderId+": "+path, e);
+		}
+		shift = HashSpreader.shiftFor(lengthMask);
+		valuesOffset = HEADER_BYTES + (length * 4);
+		nextOffset = valuesOffset + (length * valueWidth);
+		if (buffer.capacity() < nextOffset + (length * valueWidth)){
+			throw new IllegalArgumentException("Truncated file: "+path);
+		}
+	}
+
+	/**
+	 * Maps the file read-only. The channel is closed before returning,
+	 * the mapping stays valid until the map is garbage collected.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static MappedFastMap open(Path file) throws IOException{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return new MappedFastMap(file, buffer);
+		}
+	}
+
+	public static void write(FastMapV5 map, Path file) throws IOException{
+		write(map.table(),2,file);
+	}
+
+	public static void write(LargeFastMap map, Path file) throws IOException{
+		write(map.table(),4,file);
+	}
+
+	private static void write(PigeonHoleTable table, int valueWidth, Path file) throws IOException{
+		final int length = table.tableLength();
+		long fileSize = HEADER_BYTES + (length * (4L + valueWidth + valueWidth));
+		if (fileSize > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Too big to map: "+table.size()+" keys");
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.READ,StandardOpenOption.WRITE)){
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, fileSize);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(table.size());
+			buffer.putInt(length);
+			buffer.putInt(table.getNullIndex());
+			buffer.putInt(valueWidth);
+			buffer.putInt(table.getSpreader().getId());
+			buffer.putInt(0);
+			for (int i = 0 ; i < length ; i++){
+				buffer.putInt(table.keyAt(i));
+			}
+			for (int i = 0 ; i < length ; i++){
+				putValue(buffer, valueWidth, table.valueAt(i));
+			}
+			for (int i = 0 ; i < length ; i++){
+				putValue(buffer, valueWidth, table.nextAt(i));
+			}
+			buffer.force();
+		}
+	}
+
+	private static void putValue(ByteBuffer buffer, int valueWidth, int value) {
+		if (valueWidth==2){
+			buffer.putShort((short) value);
+		} else {
+			buffer.putInt(value);
+		}
+	}
+
+	private int keyAt(int slot){
+		return buffer.getInt(HEADER_BYTES + (slot << 2));
+	}
+
+	private int valueAt(int slot){
+		return valueWidth == 2
+				? buffer.getShort(valuesOffset + (slot << 1))
+				: buffer.getInt(valuesOffset + (slot << 2));
+	}
+
+	private int nextAt(int slot){
+		return valueWidth == 2
+				? buffer.getShort(nextOffset + (slot << 1))
+				: buffer.getInt(nextOffset + (slot << 2));
+	}
+
+	@Override
+	public int getIndex(int key) {
+		int index = spreader == HashSpreader.IDENTITY
+				? key & lengthMask
+				: spreader.spread(key, shift) & lengthMask;
+
+		do{
+			if (key == keyAt(index)){
+				return valueAt(index);
+			}
+			index = nextAt(index);
+		} while (index!=-1);
+
+		return nullIndex;
+	}
+
+	@Override
+	public boolean containsKey(int key) {
+		return getIndex(key)!=nullIndex;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int getNullIndex() {
+		return nullIndex;
+	}
+
+	/**
+	 * Allows the caller to specify where "null" is contained.
+	 * This does not alter the file.
+	 * @param nullIndex
+	 */
+	public void setNullIndex(int nullIndex){
+		this.nullIndex=nullIndex;
+	}
+
+	public Path getPath(){
+		return Paths.get(path);
+	}
+
+	@Override
+	public void forEachKey(IntConsumer action){
+		for (int slot = 0 ; slot < length ; slot++){
+			int key = keyAt(slot);
+			if (key!=nullKey){
+				action.accept(key);
+			}
+		}
+	}
+
+	@Override
+	public void forEachEntry(IntIntConsumer action){
+		for (int slot = 0 ; slot < length ; slot++){
+			int key = keyAt(slot);
+			if (key!=nullKey){
+				action.accept(key, valueAt(slot));
+			}
+		}
+	}
+
+	@Override
+	public Iterable<Integer> keyIterable() {
+		return new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					int index = nextIndex(-1);
+					@Override
+					public boolean hasNext() {
+						return index < length;
+					}
+
+					private int nextIndex(int index) {
+						do{
+							index++;
+						} while((index<length && keyAt(index)==nullKey));
+						return index;
+					}
+
+					@Override
+					public Integer next() {
+						int value = keyAt(index);
+						index = nextIndex(index);
+						return value;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private Object readResolve() throws ObjectStreamException{
+		try {
+			MappedFastMap map = open(Paths.get(path));
+			map.setNullIndex(nullIndex);
+			return map;
+		} catch (IOException e) {
+			InvalidObjectException invalid = new InvalidObjectException("Cannot map "+path);
+			invalid.initCause(e);
+			throw invalid;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+	/**
+	 * PackedFastMap uses the same pigeon hole hashing as LargeFastMap, but
+	 * stores each bucket's key, value and next side by side in one int[]:
+	 *
+	 * 	slots[4*b]   key
+	 * 	slots[4*b+1] value
+	 * 	slots[4*b+2] next
+	 * 	slots[4*b+3] unused
+	 *
+	 * A lookup in LargeFastMap or FastMapV5 reads keys[b] and then values[b],
+	 * which are in different arrays and so, once the map is too big for the
+	 * cache, usually in different cache lines. Here the key and value of a
+	 * bucket are always in the same line: the JVM places array data at an
+	 * 8 byte aligned address, and a bucket is 16 bytes, so the key and value
+	 * are an 8 byte aligned pair and cannot be split by a 64 byte line. So
+	 * a hit in the home bucket needs one line. Nothing stronger is promised,
+	 * the array is only 8 byte aligned and can be moved by the collector, so
+	 * the next of a bucket may fall in the following line. The fourth int
+	 * keeps buckets at a power of two stride; it costs 4 bytes per bucket
+	 * over LargeFastMap.
+	 *
+	 * The buckets chosen are identical to LargeFastMap built from the same
+	 * arguments, only the memory layout differs. For maps that fit in L2 the
+	 * separate arrays are as fast or slightly faster; the packed layout wins
+	 * once lookups start missing the cache. See FastMapTest.runLayoutTest.
+	 *
+	 * The maximum number of keys is MAX_SIZE (2^28), so the slot array
+	 * stays within the int index range.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class PackedFastMap implements IndexLookup, Serializable{
+
+		private static final long serialVersionUID = -2405816624335794729L;
+		final public static int MAX_SIZE = 1 << 28;
+		final private static float MULTIPLIER = 1.0f;
+		final private static int STRIDE = 4;
+		final private static int VALUE = 1;
+		final private static int NEXT = 2;
+		final private int length;
+		final private int lengthMask;
+		final private int shift;
+		final private int size;
+		final private HashSpreader spreader;
+
+		final private int[] slots;
+
+		/*
+		 * this is what is returned if it does not exist,
+		 * as with primitives, we cannot simply return null
+		 * Can be changed to point somewhere else.
+		 */
+		private int nullIndex = -1;
+
+
+		public PackedFastMap(UniqueHash[] orderedKeys){
+			this(FastMapV5.toIntArray(orderedKeys), MULTIPLIER);
+		}
+		public PackedFastMap(int[] orderedKeys) {
+			this(orderedKeys,MULTIPLIER);
+		}
+		public PackedFastMap(int[] orderedKeys, float multiplier){
+			this(orderedKeys, multiplier, HashSpreader.IDENTITY);
+		}
+		/**
+		 * Constructor, orderedKeys, multiplier and the hash spreader,
+		 * as for LargeFastMap.
+		 *
+		 * @param orderedKeys - ordered in the sense that the index of
+		 * 			each key will become it's associated value.
+		 * 			Must have a length <= MAX_SIZE
+		 * @param multiplier - must be at least 1
+		 * @param spreader
+		 */
+		public PackedFastMap(int[] orderedKeys, float multiplier, HashSpreader spreader){
+			PigeonHoleTables.checkMultiplier(multiplier);
+			PigeonHoleTables.checkSize(orderedKeys.length, MAX_SIZE);
+			length=calculateLength(orderedKeys.length, multiplier);
+			lengthMask = length-1;
+			shift = HashSpreader.shiftFor(lengthMask);
+			this.spreader = spreader;
+			slots = new int[length*STRIDE];
+			Arrays.fill(slots,-1);
+			size = orderedKeys.length;
+			PigeonHoleTables.putAll(table(), orderedKeys);
+		}
+
+		static int calculateLength(int keyLength, float multiplier) {
+			return PigeonHoleTables.calculateLength(keyLength, multiplier, MAX_SIZE);
+		}
+
+		public int size(){
+			return size;
+		}
+
+		protected int getEntryIndex(int bitPattern){
+			if (spreader == HashSpreader.IDENTITY){
+				return bitPattern & lengthMask;
+			}
+			return spreader.spread(bitPattern, shift) & lengthMask;
+		}
+
+		public boolean containsKey(int key){
+			return getIndex(key)!=nullIndex;
+		}
+
+		public int getIndex(int key){
+			int slot = getEntryIndex(key)*STRIDE;
+
+			while (true){
+
+				if (key == slots[slot]){
+					return slots[slot+VALUE];
+				}
+
+				int index = slots[slot+NEXT];
+				if (index==-1){
+					return nullIndex;
+				}
+				slot = index*STRIDE;
+			}
+		}
+
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		int tableLength(){
+			return length;
+		}
+
+		/**
+		 * Read access to the buckets
+		 */
+		PigeonHoleTable table(){
+			return new Table();
+		}
+
+		private final class Table implements PigeonHoleTable{
+			@Override public HashSpreader getSpreader(){
+				return spreader;
+			}
+			@Override public int tableLength(){
+				return length;
+			}
+			@Override public int keyAt(int bucket){
+				return slots[bucket*STRIDE];
+			}
+			@Override public int valueAt(int bucket){
+				return slots[bucket*STRIDE+VALUE];
+			}
+			@Override public int nextAt(int bucket){
+				return slots[bucket*STRIDE+NEXT];
+			}
+			@Override public int size(){
+				return size;
+			}
+			@Override public int getNullIndex(){
+				return nullIndex;
+			}
+			@Override public int entryIndex(int key){
+				return getEntryIndex(key);
+			}
+			@Override public void put(int bucket, int key, int value){
+				slots[bucket*STRIDE]=key;
+				slots[bucket*STRIDE+VALUE]=value;
+			}
+			@Override public void setNext(int bucket, int next){
+				slots[bucket*STRIDE+NEXT]=next;
+			}
+		}
+
+		public HashSpreader getSpreader(){
+			return spreader;
+		}
+
+		public CollisionReport collisionReport(){
+			return CollisionReport.of(table());
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof PackedFastMap){
+				PackedFastMap otherMap = ((PackedFastMap)other);
+				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex
+						|| this.spreader!=otherMap.spreader){
+					return false;
+				}
+				return Arrays.equals(this.slots, otherMap.slots);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return size;
+		}
+		/**
+		 * Walks the backing arrays, without boxing
+		 */
+		@Override
+		public void forEachKey(IntConsumer action){
+			PigeonHoleTables.forEachKey(table(), action);
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			PigeonHoleTables.forEachEntry(table(), action);
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			return PigeonHoleTables.copyKeys(table(), dest);
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return PigeonHoleTables.keyIterable(table());
+		}
+
+
+		public Iterator<Integer> keyIterator(){
+			return PigeonHoleTables.keyIterator(table());
+		}
+	}
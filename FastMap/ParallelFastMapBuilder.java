@@ -0,0 +1,243 @@
+package com.keatingfinance.datastruct;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Builds FastMapV5 and LargeFastMap instances from large key arrays
+ * using a ForkJoinPool.
+ *
+ * The result is always equal (per equals) to the map the sequential
+ * constructor would build from the same arguments, so this can be used
+ * as a drop-in replacement at start of day.
+ *
+ * The sequential constructor works in two passes: first each key is
+ * placed in its home bucket if that bucket is still empty, then the
+ * remaining keys are appended to the chains. The builder splits the
+ * work as follows:
+ *
+ * 1. (parallel, by key range) The home bucket of each key is computed,
+ * 		and the lowest index landing on each bucket is recorded with a
+ * 		compare-and-set. This is the key the sequential first pass would
+ * 		have placed there.
+ * 2. (parallel, by bucket range) The winning key and index are written
+ * 		into each bucket.
+ * 3. (sequential) The remaining keys are appended to their chains, in
+ * 		index order. This cannot be split, as each key placed changes the
+ * 		free slots available to the next, and the result must match the
+ * 		sequential layout exactly. It uses only primitive arrays, and
+ * 		PigeonHoleTables.EmptySlots to find the next free slot, as the
+ * 		sequential constructors do.
+ *
+ * Duplicated keys, and key -1, are always rejected with an
+ * IllegalArgumentException, as by the sequential constructors.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class ParallelFastMapBuilder {
+
+	/**
+	 * Below this many keys (or buckets) a task is not split further
+	 */
+	static final int SEQUENTIAL_THRESHOLD = 1 << 14;
+	private static final int NO_WINNER = Integer.MAX_VALUE;
+	private static final int nullKey = -1;
+
+	private final int[] orderedKeys;
+	private final HashSpreader spreader;
+	private final int length;
+	private final int lengthMask;
+	private final int shift;
+	private final int[] keys;
+	private final int[] values;
+	private final int[] next;
+	private final int[] home;
+	private final AtomicIntegerArray winners;
+
+	private ParallelFastMapBuilder(int[] orderedKeys, int length, HashSpreader spreader){
+		this.orderedKeys=orderedKeys;
+		this.spreader=spreader;
+		this.length=length;
+		this.lengthMask=length-1;
+		this.shift=HashSpreader.shiftFor(lengthMask);
+		this.keys=new int[length];
+		this.values=new int[length];
+		this.next=new int[length];
+		this.home=new int[orderedKeys.length];
+		this.winners=new AtomicIntegerArray(length);
+	}
+
+	public static IndexLookup build(int[] orderedKeys){
+		return build(orderedKeys, 1.0f, HashSpreader.IDENTITY, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds a FastMapV5 if the keys fit its short layout
+	 * (see IndexLookups.fitsShortLayout), otherwise a LargeFastMap.
+	 *
+	 * @param orderedKeys - ordered in the sense that the index of
+	 * 			each key will become it's associated value.
+	 * @param multiplier - at least 1, as for the FastMapV5 constructor
+	 * @param spreader
+	 * @param pool - runs the parallel parts of the build
+	 * @return a map equal to new FastMapV5(orderedKeys, multiplier, spreader)
+	 * 		or new LargeFastMap(orderedKeys, multiplier, spreader)
+	 */
+	public static IndexLookup build(int[] orderedKeys, float multiplier, HashSpreader spreader, ForkJoinPool pool){
+		if (IndexLookups.fitsShortLayout(orderedKeys.length)){
+			return buildFastMapV5(orderedKeys, multiplier, spreader, pool);
+		}
+		return buildLargeFastMap(orderedKeys, multiplier, spreader, pool);
+	}
+
+	public static FastMapV5 buildFastMapV5(int[] orderedKeys, float multiplier, HashSpreader spreader, ForkJoinPool pool){
+		PigeonHoleTables.checkMultiplier(multiplier);
+		if (!IndexLookups.fitsShortLayout(orderedKeys.length)){
+			throw new IllegalArgumentException("Too big: "+orderedKeys.length+" Maximum size is "+Short.MAX_VALUE);
+		}
+		ParallelFastMapBuilder builder = new ParallelFastMapBuilder(orderedKeys,
+				FastMapV5.calculateLength(orderedKeys.length, multiplier), spreader);
+		builder.fill(pool);
+		short[] values = new short[builder.length];
+		short[] next = new short[builder.length];
+		for (int i = 0 ; i < builder.length ; i++){
+			values[i] = (short) builder.values[i];
+			next[i] = (short) builder.next[i];
+		}
+		return new FastMapV5(builder.keys, values, next, orderedKeys.length, spreader);
+	}
+
+	public static LargeFastMap buildLargeFastMap(int[] orderedKeys, float multiplier, HashSpreader spreader, ForkJoinPool pool){
+		PigeonHoleTables.checkMultiplier(multiplier);
+		PigeonHoleTables.checkSize(orderedKeys.length, LargeFastMap.MAX_SIZE);
+		ParallelFastMapBuilder builder = new ParallelFastMapBuilder(orderedKeys,
+				LargeFastMap.calculateLength(orderedKeys.length, multiplier), spreader);
+		builder.fill(pool);
+		return new LargeFastMap(builder.keys, builder.values, builder.next, orderedKeys.length, spreader);
+	}
+
+	private void fill(ForkJoinPool pool){
+		pool.invoke(new ClearBuckets(0, length));
+		pool.invoke(new FindWinners(0, orderedKeys.length));
+		pool.invoke(new PlaceWinners(0, length));
+		resolveCollisions();
+	}
+
+	private int entryIndex(int key){
+		if (spreader == HashSpreader.IDENTITY){
+			return key & lengthMask;
+		}
+		return spreader.spread(key, shift) & lengthMask;
+	}
+
+	private final class ClearBuckets extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		final int from;
+		final int to;
+		ClearBuckets(int from, int to){
+			this.from=from;
+			this.to=to;
+		}
+		@Override
+		protected void compute() {
+			if (to-from <= SEQUENTIAL_THRESHOLD){
+				for (int b = from ; b < to ; b++){
+					winners.lazySet(b, NO_WINNER);
+				}
+				Arrays.fill(keys, from, to, nullKey);
+				Arrays.fill(values, from, to, -1);
+				Arrays.fill(next, from, to, -1);
+			} else {
+				int mid = (from+to) >>> 1;
+				invokeAll(new ClearBuckets(from, mid), new ClearBuckets(mid, to));
+			}
+		}
+	}
+
+	private final class FindWinners extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		final int from;
+		final int to;
+		FindWinners(int from, int to){
+			this.from=from;
+			this.to=to;
+		}
+		@Override
+		protected void compute() {
+			if (to-from <= SEQUENTIAL_THRESHOLD){
+				for (int i = from ; i < to ; i++){
+					if (orderedKeys[i] == nullKey){
+						throw PigeonHoleTables.emptyKey();
+					}
+					int bucket = entryIndex(orderedKeys[i]);
+					home[i] = bucket;
+					int current = winners.get(bucket);
+					while (i < current && !winners.compareAndSet(bucket, current, i)){
+						current = winners.get(bucket);
+					}
+				}
+			} else {
+				int mid = (from+to) >>> 1;
+				invokeAll(new FindWinners(from, mid), new FindWinners(mid, to));
+			}
+		}
+	}
+
+	private final class PlaceWinners extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		final int from;
+		final int to;
+		PlaceWinners(int from, int to){
+			this.from=from;
+			this.to=to;
+		}
+		@Override
+		protected void compute() {
+			if (to-from <= SEQUENTIAL_THRESHOLD){
+				for (int b = from ; b < to ; b++){
+					int winner = winners.get(b);
+					if (winner != NO_WINNER){
+						keys[b] = orderedKeys[winner];
+						values[b] = winner;
+					}
+				}
+			} else {
+				int mid = (from+to) >>> 1;
+				invokeAll(new PlaceWinners(from, mid), new PlaceWinners(mid, to));
+			}
+		}
+	}
+
+	/**
+	 * Equivalent to the handleCollission loop of the sequential
+	 * constructors, for every key that is not its bucket's winner.
+	 */
+	private void resolveCollisions(){
+		PigeonHoleTables.EmptySlots emptySlots = PigeonHoleTables.EmptySlots.of(keys);
+		for (int i = 0 ; i < orderedKeys.length ; i++){
+			int bucket = home[i];
+			if (winners.get(bucket) == i){
+				continue;
+			}
+			int key = orderedKeys[i];
+			int index = bucket;
+			while (true){
+				if (keys[index] == key){
+					throw new IllegalArgumentException("Duplicated key:"+key);
+				}
+				if (next[index] == -1){
+					break;
+				}
+				index = next[index];
+			}
+
+			int newIndex = emptySlots.take(index);
+			next[index] = newIndex;
+			keys[newIndex] = key;
+			values[newIndex] = i;
+		}
+	}
+}
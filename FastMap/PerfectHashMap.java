@@ -0,0 +1,351 @@
+package com.keatingfinance.datastruct;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+/**
+ * PerfectHashMap is an IndexLookup built on a minimal perfect hash
+ * function, in the style of CHD (compress, hash and displace).
+ *
+ * Since the keys are all known at construction, a hash function can be
+ * found that sends every key to its own slot, with exactly as many slots
+ * as keys. A lookup then always costs exactly one probe: the key in the
+ * slot is compared to verify that it was present, and either the value
+ * in that slot or the null index is returned. There are no chains to
+ * walk, so the lookup time for a miss is the same as for a hit.
+ *
+ * The construction works as follows:
+ *
+ * 1. Each key is hashed into one of roughly size/KEYS_PER_BUCKET buckets.
+ * 2. Buckets are handled largest first. For each bucket, a displacement
+ * 		d = 0, 1, 2... is tried until the slot hash of every key in the
+ * 		bucket, seeded with d, lands on a free slot. d is stored for the bucket.
+ * 3. Buckets with a single key are placed into whichever slots remain.
+ * 		For these, the slot itself is stored (as -(slot + 1)) instead of a
+ * 		displacement, so they can never fail.
+ *
+ * A lookup hashes the key to its bucket, reads the displacement, and
+ * hashes again to find the slot. This is more hashing work than
+ * FastMapV5, which uses the key's low bits directly, but the number of
+ * memory accesses is fixed at three (displacement, key, value)
+ * regardless of collisions.
+ *
+ * The metadata is one int per bucket, about 8 bits per key.
+ *
+ * Immutability means PerfectHashMap is thread-safe.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class PerfectHashMap implements IndexLookup, Serializable{
+
+	private static final long serialVersionUID = 2370139584716520581L;
+	final private static int KEYS_PER_BUCKET = 4;
+	final private static int MAX_DISPLACEMENT = 1 << 20;
+	final private static int MAX_SEEDS = 16;
+	final private static int BUCKET_SEED = 0x5bd1e995;
+	final private static int GOLDEN_RATIO = 0x9e3779b9;
+
+	final private int size;
+	final private int length;
+	final private int bucketCount;
+	final private int seed;
+	final private int[] displacements;
+	final private int[] keys;
+	final private int[] values;
+
+	private int nullIndex = -1;
+	private static int nullKey = -1;
+
+	public PerfectHashMap(UniqueHash[] orderedKeys){
+		this(FastMapV5.toIntArray(orderedKeys));
+	}
+	/**
+	 * @param orderedKeys - ordered in the sense that the index of
+	 * 			each key will become it's associated value.
+	 * @throws IllegalArgumentException if a key is duplicated
+	 */
+	public PerfectHashMap(int[] orderedKeys){
+		size = orderedKeys.length;
+		length = Math.max(1, size);
+		bucketCount = Math.max(1, (size + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+		displacements = new int[bucketCount];
+		keys = new int[length];
+		values = new int[length];
+
+		int[] bucketStart = new int[bucketCount+1];
+		int[] bucketKeys = groupByBucket(orderedKeys, bucketStart);
+		int[] bucketOrder = orderBySize(bucketStart);
+
+		int foundSeed = -1;
+		for (int s = 0 ; s < MAX_SEEDS && foundSeed == -1 ; s++){
+			if (place(orderedKeys, bucketKeys, bucketStart, bucketOrder, s)){
+				foundSeed = s;
+			}
+		}
+		if (foundSeed == -1){
+			throw new IllegalStateException("Could not find a perfect hash for "+size+" keys");
+		}
+		seed = foundSeed;
+	}
+
+	/**
+	 * Counting sort of the key indices by bucket.
+	 * On return bucketStart[b] to bucketStart[b+1] are the
+	 * positions of bucket b's key indices in the returned array.
+	 */
+	private int[] groupByBucket(int[] orderedKeys, int[] bucketStart) {
+		for (int i = 0 ; i < orderedKeys.length ; i++){
+			bucketStart[bucket(orderedKeys[i])+1]++;
+		}
+		for (int b = 0 ; b < bucketCount ; b++){
+			bucketStart[b+1] += bucketStart[b];
+		}
+		int[] position = Arrays.copyOf(bucketStart, bucketCount);
+		int[] bucketKeys = new int[orderedKeys.length];
+		for (int i = 0 ; i < orderedKeys.length ; i++){
+			bucketKeys[position[bucket(orderedKeys[i])]++]=i;
+		}
+		return bucketKeys;
+	}
+
+	/**
+	 * Counting sort of the buckets by size, largest first
+	 */
+	private int[] orderBySize(int[] bucketStart) {
+		int maxSize = 0;
+		for (int b = 0 ; b < bucketCount ; b++){
+			maxSize = Math.max(maxSize, bucketStart[b+1]-bucketStart[b]);
+		}
+		int[] sizeStart = new int[maxSize+2];
+		for (int b = 0 ; b < bucketCount ; b++){
+			sizeStart[maxSize - (bucketStart[b+1]-bucketStart[b]) + 1]++;
+		}
+		for (int i = 0 ; i <= maxSize ; i++){
+			sizeStart[i+1] += sizeStart[i];
+		}
+		int[] order = new int[bucketCount];
+		for (int b = 0 ; b < bucketCount ; b++){
+			order[sizeStart[maxSize - (bucketStart[b+1]-bucketStart[b])]++]=b;
+		}
+		return order;
+	}
+
+	private boolean place(int[] orderedKeys, int[] bucketKeys, int[] bucketStart, int[] bucketOrder, int seed) {
+		Arrays.fill(keys, nullKey);
+		Arrays.fill(values, nullIndex);
+		Arrays.fill(displacements, 0);
+		boolean[] taken = new boolean[length];
+		int[] trialSlots = new int[bucketKeys.length];
+		int nextFree = 0;
+
+		for (int b : bucketOrder){
+			int from = bucketStart[b];
+			int to = bucketStart[b+1];
+			int bucketSize = to-from;
+			if (bucketSize == 0){
+				//sorted largest first, so there are no more keys
+				break;
+			}
+			if (bucketSize == 1){
+				while (taken[nextFree]){
+					nextFree++;
+				}
+				store(orderedKeys, bucketKeys[from], nextFree, taken);
+				displacements[b] = -(nextFree+1);
+				continue;
+			}
+			checkDuplicates(orderedKeys, bucketKeys, from, to);
+			int d = findDisplacement(orderedKeys, bucketKeys, from, to, seed, taken, trialSlots);
+			if (d == -1){
+				return false;
+			}
+			for (int i = from ; i < to ; i++){
+				store(orderedKeys, bucketKeys[i], trialSlots[i-from], taken);
+			}
+			displacements[b] = d;
+		}
+		return true;
+	}
+
+	private int findDisplacement(int[] orderedKeys, int[] bucketKeys, int from, int to,
+			int seed, boolean[] taken, int[] trialSlots) {
+		for (int d = 0 ; d < MAX_DISPLACEMENT ; d++){
+			boolean fits = true;
+			for (int i = from ; i < to && fits ; i++){
+				int slot = slot(orderedKeys[bucketKeys[i]], seed, d);
+				if (taken[slot]){
+					fits = false;
+				}
+				for (int j = from ; j < i && fits ; j++){
+					if (trialSlots[j-from]==slot){
+						fits = false;
+					}
+				}
+				trialSlots[i-from]=slot;
+			}
+			if (fits){
+				return d;
+			}
+		}
+		return -1;
+	}
+
+	private void checkDuplicates(int[] orderedKeys, int[] bucketKeys, int from, int to) {
+		for (int i = from ; i < to ; i++){
+			for (int j = from ; j < i ; j++){
+				if (orderedKeys[bucketKeys[i]]==orderedKeys[bucketKeys[j]]){
+					throw new IllegalArgumentException("Duplicated key:"+orderedKeys[bucketKeys[i]]);
+				}
+			}
+		}
+	}
+
+	private void store(int[] orderedKeys, int index, int slot, boolean[] taken) {
+		taken[slot]=true;
+		keys[slot]=orderedKeys[index];
+		values[slot]=index;
+	}
+
+	/**
+	 * Murmur3 32 bit finaliser.
+	 */
+	static int mix(int h){
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Maps a hash onto 0 (inclusive) to range (exclusive) using
+	 * a multiply rather than a division.
+	 */
+	private static int reduce(int hash, int range){
+		return (int) (((hash & 0xffffffffL) * range) >>> 32);
+	}
+
+	private int bucket(int key){
+		return reduce(mix(key ^ BUCKET_SEED), bucketCount);
+	}
+
+	private int slot(int key, int seed, int displacement){
+		return reduce(mix(key + (seed * GOLDEN_RATIO) + (displacement * GOLDEN_RATIO * 2 + 1)), length);
+	}
+
+	@Override
+	public int getIndex(int key) {
+		int d = displacements[bucket(key)];
+		int slot = d < 0 ? -(d+1) : slot(key, seed, d);
+		//an empty map still has one slot, holding nullKey
+		if (keys[slot]==key && size != 0){
+			return values[slot];
+		}
+		return nullIndex;
+	}
+
+	@Override
+	public boolean containsKey(int key) {
+		return getIndex(key)!=nullIndex;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int getNullIndex() {
+		return nullIndex;
+	}
+
+	/**
+	 * Allows the caller to specify where "null" is contained
+	 * @param nullIndex
+	 */
+	public void setNullIndex(int nullIndex){
+		this.nullIndex=nullIndex;
+	}
+
+	/**
+	 * Metadata held in addition to the keys and values.
+	 * @return bits per key of the displacement table
+	 */
+	public double bitsPerKey(){
+		return size == 0 ? 0 : (32.0 * bucketCount) / size;
+	}
+
+	@Override public boolean equals(Object other){
+		if (this==other){
+			return true;
+		}
+		if (other instanceof PerfectHashMap){
+			PerfectHashMap otherMap = ((PerfectHashMap)other);
+			if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex || this.seed!=otherMap.seed){
+				return false;
+			}
+			return
+					Arrays.equals(this.displacements, otherMap.displacements) &&
+					Arrays.equals(this.keys, otherMap.keys) &&
+					Arrays.equals(this.values, otherMap.values);
+		}
+		return false;
+	}
+
+	@Override public int hashCode(){
+		return size;
+	}
+
+	@Override
+	public void forEachKey(IntConsumer action){
+		for (int slot = 0 ; slot < size ; slot++){
+			action.accept(keys[slot]);
+		}
+	}
+
+	@Override
+	public void forEachEntry(IntIntConsumer action){
+		for (int slot = 0 ; slot < size ; slot++){
+			action.accept(keys[slot], values[slot]);
+		}
+	}
+
+	@Override
+	public int[] copyKeys(int[] dest){
+		int[] orderedKeys = dest != null && dest.length >= size ? dest : new int[size];
+		for (int slot = 0 ; slot < size ; slot++){
+			orderedKeys[values[slot]] = keys[slot];
+		}
+		return orderedKeys;
+	}
+
+	@Override
+	public Iterable<Integer> keyIterable() {
+		return new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					int index = 0;
+					@Override
+					public boolean hasNext() {
+						return index < size;
+					}
+
+					@Override
+					public Integer next() {
+						return keys[index++];
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+}
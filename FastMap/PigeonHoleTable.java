@@ -0,0 +1,42 @@
+package com.keatingfinance.datastruct;
+/**
+ * Package level view of the backing tables of a pigeon hole
+ * hashed map (FastMapV5, LargeFastMap, PackedFastMap, OffHeapFastMap).
+ *
+ * A key's home slot is getSpreader().entryIndex(key, tableLength()-1).
+ * For each slot there is a key, a value and the slot of the
+ * next key in the chain (-1 at the end of the chain). Empty
+ * slots have a key of -1.
+ *
+ * This allows the tables to be copied into other layouts
+ * without exposing them outside the package. The maps do not
+ * implement this themselves, as its methods would then have to be
+ * public, each hands out a private view from a package-private
+ * table() method instead.
+ *
+ * The maps differ only in how a slot is stored, everything else
+ * is written once in PigeonHoleTables against this interface.
+ *
+ * @author Oliver Keating
+ *
+ */
+interface PigeonHoleTable {
+	HashSpreader getSpreader();
+	int tableLength();
+	int keyAt(int slot);
+	int valueAt(int slot);
+	int nextAt(int slot);
+	int size();
+	int getNullIndex();
+	/**
+	 * The home slot of key, the same as
+	 * getSpreader().entryIndex(key, tableLength()-1)
+	 * but cheap enough for the lookup path.
+	 */
+	int entryIndex(int key);
+	/*
+	 * Only used while the map is being built
+	 */
+	void put(int slot, int key, int value);
+	void setNext(int slot, int next);
+}
@@ -0,0 +1,343 @@
+package com.keatingfinance.datastruct;
+
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+/**
+ * The pigeon hole hashing shared by FastMapV5, LargeFastMap,
+ * PackedFastMap and OffHeapFastMap, written once against
+ * PigeonHoleTable.
+ *
+ * Collisions are resolved during construction by placing keys into
+ * empty slots and linking them through the "next" table, so the maps
+ * are immutable once built. See FastMapV5 for the full description.
+ *
+ * Only the lookup, getIndex, is left to each map, and reads its storage
+ * directly, as going through PigeonHoleTable costs an interface call per
+ * slot read wherever more than one kind of map is in use.
+ *
+ * @author Oliver Keating
+ *
+ */
+final class PigeonHoleTables {
+
+	static final int EMPTY = -1;
+
+	private PigeonHoleTables(){
+	}
+
+	static float checkMultiplier(float multiplier){
+		if (multiplier < 1){
+			throw new IllegalArgumentException("Multiplier must be > 1 : "+multiplier);
+		}
+		return multiplier;
+	}
+
+	static int checkSize(int size, int maxSize){
+		if (size > maxSize){
+			throw new IllegalArgumentException("Too big: "+size+" Maximum size is "+maxSize);
+		}
+		return size;
+	}
+
+	/**
+	 * Calculate length of the backing tables. Must be a power of two.
+	 * @param keyLength
+	 * @param multiplier
+	 * @param maxLength - a power of two, the length is capped at this
+	 * @return
+	 */
+	static int calculateLength(int keyLength, float multiplier, int maxLength) {
+		long value = Math.round(((double)keyLength)*multiplier);
+		int capacity = 1;
+		while (capacity < value && capacity < maxLength){
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Maps orderedKeys[i] to i in an empty table.
+	 */
+	static void putAll(PigeonHoleTable table, int[] orderedKeys){
+		for (int i = 0 ; i < orderedKeys.length ; i++){
+			putIfBucketEmpty(table, orderedKeys[i], i);
+		}
+		/*
+		 * A key that lost its home bucket in the first pass can never find
+		 * it empty later, so the collisions are exactly the keys that are
+		 * not in their home bucket. No list of them needs to be kept.
+		 */
+		EmptySlots emptySlots = null;
+		for (int i = 0 ; i < orderedKeys.length ; i++){
+			int key = orderedKeys[i];
+			if (table.keyAt(table.entryIndex(key))!=key){
+				if (emptySlots == null){
+					emptySlots = EmptySlots.of(table);
+				}
+				handleCollission(table, emptySlots, key, i);
+			}
+		}
+	}
+
+	/**
+	 * @return false if the home bucket is taken, in which case
+	 * 		the key must be passed to handleCollission once every
+	 * 		key has had the chance of its home bucket.
+	 * @throws IllegalArgumentException if key is EMPTY, which would
+	 * 		leave its bucket looking empty and be lost
+	 */
+	static boolean putIfBucketEmpty(PigeonHoleTable table, int key, int value) {
+		if (key==EMPTY){
+			throw emptyKey();
+		}
+		int index = table.entryIndex(key);
+		int current = table.keyAt(index);
+		if (current!=EMPTY){
+			if (current==key){
+				throw new IllegalArgumentException("Duplicated key:"+key);
+			}
+			return false;
+		}
+		table.put(index, key, value);
+		return true;
+	}
+
+	static IllegalArgumentException emptyKey(){
+		return new IllegalArgumentException("Key "+EMPTY+" marks an empty bucket and cannot be held");
+	}
+
+	/**
+	 * Places the key in the first empty slot after the end of its
+	 * chain, wrapping around, and links it to the end of the chain.
+	 */
+	static void handleCollission(PigeonHoleTable table, EmptySlots emptySlots, int key, int value) {
+		int index = table.entryIndex(key);
+		while(true){
+			if (table.keyAt(index) == key){
+				throw new IllegalArgumentException("Duplicated key:"+key);
+			}
+			if (table.nextAt(index) == -1){
+				break;
+			}
+			index=table.nextAt(index);
+		}
+
+		int newIndex = emptySlots.take(index);
+		table.setNext(index, newIndex);
+		table.put(newIndex, key, value);
+	}
+
+	/**
+	 * Finds the first empty slot at or after a given slot, wrapping around,
+	 * without scanning the slots in between. Scanning makes a nearly full
+	 * table quadratic to build, as each collision walks the same run of
+	 * occupied slots as the one before.
+	 *
+	 * This is a union-find of the empty slots: next[s] points towards the
+	 * first empty slot at or after s, and next[length] is a sentinel,
+	 * meaning wrap around to 0. It costs an int per slot while the map is
+	 * being built.
+	 */
+	static final class EmptySlots{
+		private final int[] next;
+		private final int length;
+
+		private EmptySlots(int length){
+			this.length = length;
+			this.next = new int[length+1];
+			next[length] = length;
+		}
+
+		static EmptySlots of(PigeonHoleTable table){
+			final int length = table.tableLength();
+			EmptySlots emptySlots = new EmptySlots(length);
+			for (int s = 0 ; s < length ; s++){
+				emptySlots.next[s] = table.keyAt(s) == EMPTY ? s : s+1;
+			}
+			return emptySlots;
+		}
+
+		static EmptySlots of(int[] keys){
+			EmptySlots emptySlots = new EmptySlots(keys.length);
+			for (int s = 0 ; s < keys.length ; s++){
+				emptySlots.next[s] = keys[s] == EMPTY ? s : s+1;
+			}
+			return emptySlots;
+		}
+
+		/**
+		 * For ShortFastMap, whose empty buckets hold the key empty
+		 * rather than EMPTY
+		 */
+		static EmptySlots of(short[] keys, short empty){
+			EmptySlots emptySlots = new EmptySlots(keys.length);
+			for (int s = 0 ; s < keys.length ; s++){
+				emptySlots.next[s] = keys[s] == empty ? s : s+1;
+			}
+			return emptySlots;
+		}
+
+		static EmptySlots of(long[] keys){
+			EmptySlots emptySlots = new EmptySlots(keys.length);
+			for (int s = 0 ; s < keys.length ; s++){
+				emptySlots.next[s] = keys[s] == EMPTY ? s : s+1;
+			}
+			return emptySlots;
+		}
+
+		/**
+		 * @return the first empty slot at or after from, wrapping around,
+		 * 		which is no longer counted as empty.
+		 */
+		int take(int from){
+			int slot = find(from);
+			if (slot == length){
+				slot = find(0);
+			}
+			next[slot] = slot+1;
+			return slot;
+		}
+
+		/**
+		 * @return the first empty slot at or after from, or length if
+		 * 		there are none before the end of the table.
+		 */
+		private int find(int from){
+			int root = from;
+			while (next[root] != root){
+				root = next[root];
+			}
+			//path compression
+			while (next[from] != root){
+				int following = next[from];
+				next[from] = root;
+				from = following;
+			}
+			return root;
+		}
+	}
+
+	/**
+	 * The keys which did not get their home bucket when put one
+	 * at a time, held until the builder's build() is called.
+	 */
+	static final class Collisions{
+		private final int[] keys;
+		private final int[] values;
+		private int count=0;
+
+		Collisions(int maxSize){
+			keys=new int[maxSize];
+			values=new int[maxSize];
+		}
+
+		void put(PigeonHoleTable table, int key, int value){
+			if (!putIfBucketEmpty(table, key, value)){
+				keys[count]=key;
+				values[count]=value;
+				count++;
+			}
+		}
+
+		void resolve(PigeonHoleTable table){
+			if (count == 0){
+				return;
+			}
+			EmptySlots emptySlots = EmptySlots.of(table);
+			for (int i = 0 ; i < count ; i++){
+				handleCollission(table, emptySlots, keys[i], values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the largest number of links followed from
+	 * any slot before reaching the end of its chain.
+	 */
+	static int deepestCollission(PigeonHoleTable table) {
+		final int length = table.tableLength();
+		int deepest=0;
+		for (int i = 0 ; i < length ; i++){
+			int depth = 0;
+			for (int j = table.nextAt(i) ; j != -1 ; j = table.nextAt(j)){
+				depth++;
+			}
+			deepest=Math.max(depth, deepest);
+		}
+		return deepest;
+	}
+
+	static void forEachKey(PigeonHoleTable table, IntConsumer action){
+		final int length = table.tableLength();
+		for (int slot = 0 ; slot < length ; slot++){
+			int key = table.keyAt(slot);
+			if (key!=EMPTY){
+				action.accept(key);
+			}
+		}
+	}
+
+	static void forEachEntry(PigeonHoleTable table, IntIntConsumer action){
+		final int length = table.tableLength();
+		for (int slot = 0 ; slot < length ; slot++){
+			int key = table.keyAt(slot);
+			if (key!=EMPTY){
+				action.accept(key, table.valueAt(slot));
+			}
+		}
+	}
+
+	static int[] copyKeys(PigeonHoleTable table, int[] dest){
+		final int size = table.size();
+		final int length = table.tableLength();
+		int[] orderedKeys = dest != null && dest.length >= size ? dest : new int[size];
+		for (int slot = 0 ; slot < length ; slot++){
+			int key = table.keyAt(slot);
+			if (key!=EMPTY){
+				orderedKeys[table.valueAt(slot)] = key;
+			}
+		}
+		return orderedKeys;
+	}
+
+	static Iterable<Integer> keyIterable(final PigeonHoleTable table){
+		return new Iterable<Integer>() {
+
+			@Override
+			public Iterator<Integer> iterator() {
+				return keyIterator(table);
+			}
+		};
+	}
+
+	static Iterator<Integer> keyIterator(final PigeonHoleTable table){
+		final int length = table.tableLength();
+		return new Iterator<Integer>() {
+			int index = nextIndex(-1);
+			@Override
+			public boolean hasNext() {
+				return index < length;
+			}
+
+			private int nextIndex(int index) {
+				do{
+					index++;
+				} while((index<length && table.keyAt(index)==EMPTY));
+				return index;
+			}
+
+			@Override
+			public Integer next() {
+				int value = table.keyAt(index);
+				index = nextIndex(index);
+				return value;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
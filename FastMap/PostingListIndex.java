@@ -0,0 +1,262 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+	/**
+	 * PostingListIndex maps a non-unique key, e.g. a sector id, an exchange
+	 * id or the SimpleDate hash of a listing date, to every row holding it.
+	 *
+	 * It is built from a key column, keyColumn[row] being the key of each
+	 * row, and is laid out in compressed sparse row form:
+	 *
+	 * 	slots - an IndexLookup from each distinct key to its slot
+	 * 	offsets - the postings of slot s are postings[offsets[s]] up to
+	 * 		(excluding) postings[offsets[s+1]]
+	 * 	postings - the rows, grouped by key, each group in row order
+	 *
+	 * so finding the rows of a key costs one getIndex and two array loads,
+	 * and the rows themselves are contiguous.
+	 *
+	 * The rows can be read without allocating, either by position,
+	 *
+	 * 	for (int p = index.firstPosition(key) ; p < index.endPosition(key) ; p++){
+	 * 		int row = index.rowAt(p);
+	 *
+	 * or through a Range, which the caller allocates once and reuses:
+	 *
+	 * 	PostingListIndex.Range rows = new PostingListIndex.Range();
+	 * 	index.postings(key, rows).forEach(row -> ...);
+	 *
+	 * The build sorts the (key, row) pairs packed into longs with
+	 * Arrays.parallelSort, and builds the slot lookup with
+	 * IndexLookups.build(int[], ForkJoinPool), so large columns are built
+	 * in parallel on the common pool.
+	 *
+	 * Immutable, and therefore thread-safe. Range is not thread-safe, each
+	 * thread needs its own.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class PostingListIndex implements Serializable{
+
+		private static final long serialVersionUID = -1670233651920461841L;
+		final private IndexLookup slots;
+		final private int[] distinctKeys;
+		final private int[] offsets;
+		final private int[] postings;
+
+		/**
+		 * @param keyColumn - the key of each row, keyColumn[row]
+		 */
+		public PostingListIndex(int[] keyColumn){
+			this(keyColumn, ForkJoinPool.commonPool());
+		}
+
+		/**
+		 * @param keyColumn - the key of each row, keyColumn[row]
+		 * @param pool - builds the slot lookup if it is too big for FastMapV5.
+		 * 			The sort always runs on the common pool.
+		 */
+		public PostingListIndex(int[] keyColumn, ForkJoinPool pool){
+			final int rows = keyColumn.length;
+			//key in the high half, so signed order of the longs is key order, then row order
+			long[] packed = new long[rows];
+			Arrays.parallelSetAll(packed, row -> (((long) keyColumn[row]) << 32) | row);
+			Arrays.parallelSort(packed);
+
+			int distinct = 0;
+			for (int p = 0 ; p < rows ; p++){
+				if (p == 0 || (packed[p] >> 32) != (packed[p-1] >> 32)){
+					distinct++;
+				}
+			}
+			distinctKeys = new int[distinct];
+			offsets = new int[distinct + 1];
+			postings = new int[rows];
+			int slot = -1;
+			for (int p = 0 ; p < rows ; p++){
+				int key = (int) (packed[p] >> 32);
+				if (slot < 0 || key != distinctKeys[slot]){
+					slot++;
+					distinctKeys[slot] = key;
+					offsets[slot] = p;
+				}
+				postings[p] = (int) packed[p];
+			}
+			offsets[distinct] = rows;
+			slots = IndexLookups.build(distinctKeys, pool);
+		}
+
+		/**
+		 * @return the slot of key, or -1 if it is absent
+		 */
+		private int slotOf(int key){
+			int slot = slots.getIndex(key);
+			return slot == slots.getNullIndex() ? -1 : slot;
+		}
+
+		/**
+		 * @return the number of rows indexed
+		 */
+		public int size(){
+			return postings.length;
+		}
+
+		/**
+		 * @return the number of distinct keys
+		 */
+		public int keyCount(){
+			return distinctKeys.length;
+		}
+
+		public boolean containsKey(int key){
+			return slotOf(key) >= 0;
+		}
+
+		/**
+		 * @param key
+		 * @return the number of rows with this key
+		 */
+		public int count(int key){
+			int slot = slotOf(key);
+			return slot < 0 ? 0 : offsets[slot+1] - offsets[slot];
+		}
+
+		/**
+		 * @param key
+		 * @return the position of the first row with this key, see rowAt.
+		 * 		If the key is absent, equal to endPosition(key).
+		 */
+		public int firstPosition(int key){
+			int slot = slotOf(key);
+			return slot < 0 ? 0 : offsets[slot];
+		}
+
+		/**
+		 * @param key
+		 * @return the position after the last row with this key
+		 */
+		public int endPosition(int key){
+			int slot = slotOf(key);
+			return slot < 0 ? 0 : offsets[slot+1];
+		}
+
+		/**
+		 * @param position - from firstPosition up to endPosition
+		 * @return the row at this position
+		 */
+		public int rowAt(int position){
+			return postings[position];
+		}
+
+		/**
+		 * Points range at the rows with this key (an empty range if
+		 * the key is absent).
+		 * @param key
+		 * @param range - overwritten
+		 * @return range
+		 */
+		public Range postings(int key, Range range){
+			int slot = slotOf(key);
+			if (slot < 0){
+				range.set(postings, 0, 0);
+			} else {
+				range.set(postings, offsets[slot], offsets[slot+1]);
+			}
+			return range;
+		}
+
+		/**
+		 * Calls action with every row with this key, in row order.
+		 * @param key
+		 * @param action
+		 */
+		public void forEachRow(int key, IntConsumer action){
+			int slot = slotOf(key);
+			if (slot < 0){
+				return;
+			}
+			for (int p = offsets[slot] ; p < offsets[slot+1] ; p++){
+				action.accept(postings[p]);
+			}
+		}
+
+		/**
+		 * Calls action with every distinct key, in ascending order.
+		 * @param action
+		 */
+		public void forEachKey(IntConsumer action){
+			for (int key : distinctKeys){
+				action.accept(key);
+			}
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof PostingListIndex){
+				PostingListIndex otherIndex = ((PostingListIndex)other);
+				return Arrays.equals(this.distinctKeys, otherIndex.distinctKeys)
+						&& Arrays.equals(this.offsets, otherIndex.offsets)
+						&& Arrays.equals(this.postings, otherIndex.postings);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return postings.length;
+		}
+
+		/**
+		 * A reusable view of the rows of one key, filled by
+		 * PostingListIndex.postings(key, range).
+		 */
+		public static final class Range{
+			private int[] postings;
+			private int from;
+			private int to;
+
+			void set(int[] postings, int from, int to){
+				this.postings=postings;
+				this.from=from;
+				this.to=to;
+			}
+
+			public int size(){
+				return to-from;
+			}
+
+			public boolean isEmpty(){
+				return to==from;
+			}
+
+			/**
+			 * @param i - between 0 and size()-1
+			 * @return the i'th row
+			 */
+			public int get(int i){
+				if (i < 0 || i >= to-from){
+					throw new IndexOutOfBoundsException(i+" of "+(to-from));
+				}
+				return postings[from+i];
+			}
+
+			public void forEach(IntConsumer action){
+				for (int p = from ; p < to ; p++){
+					action.accept(postings[p]);
+				}
+			}
+
+			/**
+			 * @param dest - must have room for size() rows from destPos
+			 * @param destPos
+			 */
+			public void copyTo(int[] dest, int destPos){
+				System.arraycopy(postings, from, dest, destPos, to-from);
+			}
+		}
+	}
@@ -0,0 +1,314 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+	/**
+	 * RobinHoodMap is an open addressing IndexLookup with a hard bound
+	 * on the number of slots any lookup can examine.
+	 *
+	 * FastMapV5 places a colliding key in the next empty slot found by a
+	 * linear scan, and links it from the end of its chain. The chain can
+	 * therefore pass through slots belonging to other buckets, and its
+	 * length is only limited by the table. Here every key is instead
+	 * stored within MAX_PROBE_LENGTH slots after its home bucket, using
+	 * Robin Hood insertion: while probing, a key that is further from its
+	 * home than the resident key takes the slot, and the resident moves on.
+	 * This keeps the distances from home even, and gives two guarantees:
+	 *
+	 * 	- a lookup examines at most maxProbeLength()+1 consecutive slots,
+	 * 		so the worst case of getIndex is known once the map is built.
+	 * 	- a miss can stop as soon as it meets a slot whose key is nearer
+	 * 		its home than the probe is, since the key would have taken that
+	 * 		slot. Misses therefore usually stop after one or two slots,
+	 * 		rather than walking a whole chain.
+	 *
+	 * The distance of each slot from home is held (plus one, zero meaning
+	 * empty) in a byte[], which is read before the key, so empty slots need
+	 * no reserved key value and -1 may be used as a key.
+	 *
+	 * If a key cannot be placed within MAX_PROBE_LENGTH, the table length
+	 * is doubled and all keys are placed again.
+	 *
+	 * As the map is immutable there are no deletes, so the backward shift
+	 * that Robin Hood tables use to close the gap left by a removed key is
+	 * never needed.
+	 *
+	 * Linear probing needs the home buckets spread evenly, so the default
+	 * spreader is MURMUR rather than IDENTITY.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class RobinHoodMap implements IndexLookup, Serializable{
+
+		private static final long serialVersionUID = 7460359017826093317L;
+		final public static int MAX_SIZE = 1 << 29;
+		final public static int MAX_PROBE_LENGTH = 32;
+		final private static float MULTIPLIER = 1.25f;
+		final private int length;
+		final private int lengthMask;
+		final private int shift;
+		final private int size;
+		final private int maxProbeLength;
+		final private HashSpreader spreader;
+
+		final private int[] keys;
+		final private int[] values;
+		/*
+		 * distance from the home bucket plus one, 0 for an empty slot
+		 */
+		final private byte[] distances;
+
+		/*
+		 * this is what is returned if it does not exist,
+		 * as with primitives, we cannot simply return null
+		 * Can be changed to point somewhere else.
+		 */
+		private int nullIndex = -1;
+
+
+		public RobinHoodMap(UniqueHash[] orderedKeys){
+			this(FastMapV5.toIntArray(orderedKeys));
+		}
+		public RobinHoodMap(int[] orderedKeys) {
+			this(orderedKeys, MULTIPLIER, HashSpreader.MURMUR);
+		}
+		/**
+		 * @param orderedKeys - ordered in the sense that the index of
+		 * 			each key will become it's associated value.
+		 * 			Must have a length <= MAX_SIZE
+		 * @param multiplier - slots per key, must be at least 1. As every
+		 * 			slot holds a key, values near 1 give long probes; the
+		 * 			default of 1.25 keeps the load factor at 0.8 or below.
+		 * @param spreader
+		 */
+		public RobinHoodMap(int[] orderedKeys, float multiplier, HashSpreader spreader){
+			if (multiplier < 1){
+				throw new IllegalArgumentException("Multiplier must be > 1 : "+multiplier);
+			}
+			if (orderedKeys.length > MAX_SIZE){
+				throw new IllegalArgumentException("Too big: "+orderedKeys.length+" Maximum size is "+MAX_SIZE);
+			}
+			this.spreader = spreader;
+			this.size = orderedKeys.length;
+			int tryLength = LargeFastMap.calculateLength(orderedKeys.length, multiplier);
+			int[] tryKeys;
+			int[] tryValues;
+			byte[] tryDistances;
+			int longest;
+			while (true){
+				tryKeys = new int[tryLength];
+				tryValues = new int[tryLength];
+				tryDistances = new byte[tryLength];
+				longest = place(orderedKeys, tryKeys, tryValues, tryDistances, spreader);
+				if (longest >= 0){
+					break;
+				}
+				if (tryLength >= LargeFastMap.MAX_SIZE){
+					throw new IllegalStateException("Cannot place "+size+" keys within "+MAX_PROBE_LENGTH+" probes");
+				}
+				tryLength <<= 1;
+			}
+			length = tryLength;
+			lengthMask = length-1;
+			shift = HashSpreader.shiftFor(lengthMask);
+			keys = tryKeys;
+			values = tryValues;
+			distances = tryDistances;
+			maxProbeLength = longest;
+		}
+
+		/**
+		 * Robin Hood insertion of all the keys.
+		 * @return the longest distance from home, or -1 if a key
+		 * 		could not be placed within MAX_PROBE_LENGTH
+		 */
+		private static int place(int[] orderedKeys, int[] keys, int[] values, byte[] distances, HashSpreader spreader){
+			final int mask = keys.length-1;
+			final int shift = HashSpreader.shiftFor(mask);
+			int longest = 0;
+			for (int i = 0 ; i < orderedKeys.length ; i++){
+				int key = orderedKeys[i];
+				int value = i;
+				int slot = spreader.spread(key, shift) & mask;
+				int distance = 0;
+				while (true){
+					int resident = distances[slot] - 1;
+					if (resident < 0){
+						keys[slot] = key;
+						values[slot] = value;
+						distances[slot] = (byte) (distance+1);
+						longest = Math.max(longest, distance);
+						break;
+					}
+					if (keys[slot] == key){
+						throw new IllegalArgumentException("Duplicated key:"+key);
+					}
+					if (resident < distance){
+						//the resident is richer, it gives up the slot
+						int displacedKey = keys[slot];
+						int displacedValue = values[slot];
+						keys[slot] = key;
+						values[slot] = value;
+						distances[slot] = (byte) (distance+1);
+						longest = Math.max(longest, distance);
+						key = displacedKey;
+						value = displacedValue;
+						distance = resident;
+					}
+					slot = (slot+1) & mask;
+					distance++;
+					if (distance > MAX_PROBE_LENGTH){
+						return -1;
+					}
+				}
+			}
+			return longest;
+		}
+
+		public int size(){
+			return size;
+		}
+
+		/**
+		 * @return the greatest distance of any key from its home bucket.
+		 * 		No lookup examines more than this plus one slots.
+		 */
+		public int maxProbeLength(){
+			return maxProbeLength;
+		}
+
+		public int tableLength(){
+			return length;
+		}
+
+		public HashSpreader getSpreader(){
+			return spreader;
+		}
+
+		public boolean containsKey(int key){
+			return getIndex(key)!=nullIndex;
+		}
+
+		public int getIndex(int key){
+			int slot = spreader.spread(key, shift) & lengthMask;
+			int distance = 1;
+			/*
+			 * stops at an empty slot, or a key nearer its home than this one
+			 * would be. As no key is further than maxProbeLength from home,
+			 * this is reached within maxProbeLength+1 slots.
+			 */
+			while (distances[slot] >= distance){
+				if (keys[slot] == key){
+					return values[slot];
+				}
+				slot = (slot+1) & lengthMask;
+				distance++;
+			}
+			return nullIndex;
+		}
+
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		@Override
+		public void forEachKey(IntConsumer action){
+			for (int slot = 0 ; slot < length ; slot++){
+				if (distances[slot]!=0){
+					action.accept(keys[slot]);
+				}
+			}
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			for (int slot = 0 ; slot < length ; slot++){
+				if (distances[slot]!=0){
+					action.accept(keys[slot], values[slot]);
+				}
+			}
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			int[] orderedKeys = dest != null && dest.length >= size ? dest : new int[size];
+			for (int slot = 0 ; slot < length ; slot++){
+				if (distances[slot]!=0){
+					orderedKeys[values[slot]] = keys[slot];
+				}
+			}
+			return orderedKeys;
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof RobinHoodMap){
+				RobinHoodMap otherMap = ((RobinHoodMap)other);
+				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex
+						|| this.spreader!=otherMap.spreader){
+					return false;
+				}
+				return
+						Arrays.equals(this.keys, otherMap.keys) &&
+						Arrays.equals(this.values, otherMap.values) &&
+						Arrays.equals(this.distances, otherMap.distances);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return size;
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return new Iterable<Integer>() {
+
+				@Override
+				public Iterator<Integer> iterator() {
+					return keyIterator();
+				}
+			};
+		}
+
+		public Iterator<Integer> keyIterator(){
+			return new Iterator<Integer>() {
+				int index = nextIndex(-1);
+				@Override
+				public boolean hasNext() {
+					return index < length;
+				}
+
+				private int nextIndex(int index) {
+					do{
+						index++;
+					} while((index<length && distances[index]==0));
+					return index;
+				}
+
+				@Override
+				public Integer next() {
+					int value = keys[index];
+					index = nextIndex(index);
+					return value;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
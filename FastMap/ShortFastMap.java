@@ -1,182 +1,221 @@
 package com.keatingfinance.datastruct;
 
-import java.util.ArrayList;
+import java.io.Serializable;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
 /**
  * ShortFastMap is an immutable map that maps short values to short keys. It is considerably more time and space efficient
  * than using a HashMap<Short,Short> for the same purpose, mainly because of the avoidance of the use of wrappers,
  * and because allocating an array of shorts does take up less space than ints. This is not true of short fields.
- * 
+ *
  * This is designed to be immutable, and the size of the map is made big enough to have a next nearest power of two to the size
- * of the data. 
- *  
+ * of the data.
+ *
+ * It uses the same pigeon hole hashing as FastMapV5: each key is placed in its home bucket if it is free, then the keys
+ * that collided are chained into the free buckets. The keys that collided are exactly those not in their home bucket after
+ * the first pass, so the constructors allocate nothing but the tables. Each bucket takes 6 bytes, against 8 for FastMapV5,
+ * so more of the map stays in cache.
+ *
+ * Short.MIN_VALUE marks an empty bucket, so it cannot be a key. It is never a SimpleDate.compressedHash, which has no
+ * month 0.
+ *
+ * Values must not be negative, as they index the array returned by copyKeys, and -1 is the default null index.
+ *
+ * As in the int maps, collisions are placed with PigeonHoleTables.EmptySlots rather than a linear scan for a free bucket.
+ *
  * @author Oliver Keating
  *
  */
-public class ShortFastMap {
+public class ShortFastMap implements ShortIndexLookup {
 
-		
+		private static final long serialVersionUID = 2719946310402937740L;
+		final private static int MAX_LENGTH = Short.MAX_VALUE + 1;
+		final private int length;
 		final private int lengthMask;
-		final private int size;
-		
+		/*
+		 * only set by a Builder before the map is returned to the caller
+		 */
+		private int size;
+
 		final private short[] keys;
 		final private short[] values;
 		final private short[] next;
-	
+
 		/*
 		 * this is what is returned if it does not exist,
 		 * as with primitives, we cannot simply return null
 		 * Can be changed to point somewhere else.
-		 * 
+		 *
 		 * -1 is a standard convention, though 0 might be used
 		 * if to point to an array index that contains the "null" value.
 		 */
 		private int nullIndex = -1;
 		final private static short nullKey = Short.MIN_VALUE;
 
-	
+
 		/**
-		 * Constructor, orderedKeys and multiplier. 
-		 * 
-		 * Multiplier allows some tuning in space-time tradeoff. Higher values reduce collisions, therefore lookup time, but will 
-		 * result in a larger map. Due to the way this implementation works, the multiplier must be at least 1
-		 * 
+		 * Constructor, orderedKeys.
+		 *
 		 * @param orderedKeys - ordered in the sense that the index of each key will become it's associated value. Must have a length < Short.MAX_VALUE
 		 */
 		public ShortFastMap(short[] orderedKeys){
-			
-			if (orderedKeys.length >=Short.MAX_VALUE){
-				throw new IllegalArgumentException("Too big: "+orderedKeys.length+" Maximum size is "+Short.MAX_VALUE);
-			}
-			int length=calculateLength(orderedKeys.length);
-			lengthMask =length -1;
-			keys = new short[length];
-			values = new short[length];
-			next = new short[length];
-			Arrays.fill(keys,nullKey);
-			Arrays.fill(values,(short)nullIndex);
-			Arrays.fill(next,(short)nullIndex);
+			this(checkSize(orderedKeys.length));
 			size = orderedKeys.length;
-
-			
-			List<Short> collissionList = getCollsionList(orderedKeys);
-		
-//			System.out.println("collisions "+collissionList.size());
-			
-			for (Short collission : collissionList){
-				handleCollission(orderedKeys[collission],collission);
+			for (int i = 0 ; i < orderedKeys.length ; i++){
+				putIfBucketEmpty(orderedKeys[i],(short) i);
 			}
-
-//			System.out.println("deepest collission="+deepestCollission());
-			
-		}
-		
-		private List<Short> getCollsionList(short[] orderedKeys) {
-			List<Short> collissionList = new ArrayList<Short>();
+			PigeonHoleTables.EmptySlots emptySlots = null;
 			for (int i = 0 ; i < orderedKeys.length ; i++){
-				boolean isCollision = put(orderedKeys[i],i);
-				if (isCollision){
-					collissionList.add((short) i);
+				short key = orderedKeys[i];
+				if (keys[getEntryIndex(key)]!=key){
+					if (emptySlots == null){
+						emptySlots = PigeonHoleTables.EmptySlots.of(keys, nullKey);
+					}
+					handleCollission(emptySlots, key,(short) i);
 				}
 			}
-			return collissionList;
 		}
-		
+
+		/**
+		 * Constructor, keys and the value of each key.
+		 *
+		 * @param inputKeys - must have a length < Short.MAX_VALUE
+		 * @param inputValues - the value of each key, at the same position. None may be negative.
+		 */
 		public ShortFastMap(short[] inputKeys, short[] inputValues){
-			if (inputKeys.length >=Short.MAX_VALUE){
-				throw new IllegalArgumentException("Too big: "+inputKeys.length+" Maximum size is "+Short.MAX_VALUE);
+			this(checkSize(inputKeys.length));
+			if (inputValues.length != inputKeys.length){
+				throw new IllegalArgumentException(inputKeys.length+" keys but "+inputValues.length+" values");
 			}
-			int length=calculateLength(inputKeys.length);
+			size = inputKeys.length;
+			for (int i = 0 ; i < inputKeys.length ; i++){
+				putIfBucketEmpty(inputKeys[i],checkValue(inputValues[i]));
+			}
+			PigeonHoleTables.EmptySlots emptySlots = null;
+			for (int i = 0 ; i < inputKeys.length ; i++){
+				short key = inputKeys[i];
+				if (keys[getEntryIndex(key)]!=key){
+					if (emptySlots == null){
+						emptySlots = PigeonHoleTables.EmptySlots.of(keys, nullKey);
+					}
+					handleCollission(emptySlots, key,inputValues[i]);
+				}
+			}
+		}
+
+		/**
+		 * An empty map with room for capacity keys
+		 */
+		private ShortFastMap(int capacity){
+			length=calculateLength(capacity);
 			lengthMask =length -1;
 			keys = new short[length];
 			values = new short[length];
 			next = new short[length];
 			Arrays.fill(keys,nullKey);
 			Arrays.fill(values,(short)nullIndex);
-			Arrays.fill(next,(short)nullIndex);
-			size = keys.length;
-			List<Integer>  collissionMap = getCollissionMap(inputKeys,inputValues);
-			for (Integer keyValue : collissionMap){
-				short key = (short) ((keyValue>>16));
-				short value = (short)(keyValue & 0xffff);
-				handleCollission(key, value);
+			Arrays.fill(next,(short)-1);
+		}
+
+		private static int checkSize(int size){
+			if (size >=Short.MAX_VALUE){
+				throw new IllegalArgumentException("Too big: "+size+" Maximum size is "+Short.MAX_VALUE);
 			}
+			return size;
 		}
-	
-		private List<Integer> getCollissionMap(short[] keys,
-				short[] values) {
-			List<Integer> collissions = new ArrayList<>();
-			for (int i = 0 ; i < keys.length ; i++){
-				boolean isCollision = put(keys[i],values[i]);
-				if (isCollision){
-					collissions.add( ( ( ((int)keys[i]) <<16 ) |   values[i]));
-				}
+
+		private static short checkValue(short value){
+			if (value < 0){
+				throw new IllegalArgumentException("Negative value: "+value);
 			}
-			return collissions;
+			return value;
 		}
 
 		public int size(){
 			return size;
 		}
 
+		/**
+		 * Returns the maximum value of keys
+		 * in the same bucket.
+		 * @return
+		 */
+		public int deepestCollission() {
+			int deepest=0;
+			for (int i = 0 ; i < length ; i++){
+				int depth = 0;
+				int j = i;
+				while (next[j]!=-1){
+					depth++;
+					j = next[j];
+				}
+				deepest=Math.max(depth, deepest);
+			}
+			return deepest;
+		}
 
+		/**
+		 * As PigeonHoleTables.handleCollission, for short keys
+		 */
+		private void handleCollission(PigeonHoleTables.EmptySlots emptySlots, short key, short value) {
 
-		private void handleCollission(short key, short value) {
-		
 			int index = getEntryIndex(key);
 
-			while(next[index] != nullIndex){
-				index=next[index];
-			}
-	
-			int newIndex = index;
-			
-			while(keys[newIndex]!=nullKey){
-				newIndex++;
-				if (newIndex == lengthMask){
-					newIndex =0;
+			while(true){
+				if (keys[index]==key){
+					throw new IllegalArgumentException("Duplicated key:"+key);
+				}
+				if (next[index] == -1){
+					break;
 				}
+				index=next[index];
 			}
-			
+
+			int newIndex = emptySlots.take(index);
+
 			next[index] = (short) newIndex;
 			keys[newIndex]=key;
-			values[newIndex]=(short) value;
-			
+			values[newIndex]=value;
+
 		}
 /**
  * Calculate length of the backing array. Must be a power of two.
  * @param tickerLenth
- * @param multiplier
  * @return
  */
-		private int calculateLength(int length) {
+		static int calculateLength(int tickerLenth) {
 			int capacity = 1;
-			while (capacity < length){
+			while (capacity < tickerLenth){
 				capacity <<= 1;
-			} 
-			return capacity < Short.MAX_VALUE ? capacity : Short.MAX_VALUE;
-			
+			}
+			/*
+			 * as FastMapV5, 2^15 is the largest power of two whose
+			 * indices can all be stored in the short next array
+			 */
+			return capacity <= MAX_LENGTH ? capacity : MAX_LENGTH;
+
 		}
 
 
-		private boolean put(short key, int value) {
-			
+		private boolean putIfBucketEmpty(short key, short value) {
+			if (key == nullKey){
+				throw new IllegalArgumentException("Key "+nullKey+" is reserved for empty buckets");
+			}
+
 			int index = getEntryIndex(key);
-		
+
 			if (keys[index]!=nullKey){
 				if (keys[index]==key){
 					throw new IllegalArgumentException("Duplicated key:"+key);
 				}
-				return true;
+				return false;
 			}
 			keys[index] = key;
-			values[index] = (short) value;
-			return false;
+			values[index] = value;
+			return true;
 		}
-			
+
 
 		private int getEntryIndex(short bitPattern){
 			return bitPattern & lengthMask;
@@ -185,20 +224,202 @@ public class ShortFastMap {
 		public boolean containsKey(short key){
 			return getIndex(key)!=nullIndex;
 		}
-		
+
 		public int getIndex(short bitPattern){
 			int index = getEntryIndex(bitPattern);
-		
+
 			do{
-				
+
 				if (bitPattern == keys[index]){
 					return values[index];
 				}
-				
+
 				index = next[index];
-		
-			} while (index!=nullIndex);
-			
+
+			} while (index!=-1);
+
+			return nullIndex;
+		}
+
+		public int getNullIndex(){
 			return nullIndex;
 		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		public int tableLength(){
+			return length;
+		}
+
+		/**
+		 * Calls action with every key, widened to an int, without boxing.
+		 * @param action
+		 */
+		@Override
+		public void forEachKey(IntConsumer action){
+			for (int slot = 0 ; slot < keys.length ; slot++){
+				if (keys[slot]!=nullKey){
+					action.accept(keys[slot]);
+				}
+			}
+		}
+
+		/**
+		 * Calls action with every key and its value, without boxing.
+		 * @param action
+		 */
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			for (int slot = 0 ; slot < keys.length ; slot++){
+				if (keys[slot]!=nullKey){
+					action.accept(keys[slot], values[slot]);
+				}
+			}
+		}
+
+		/**
+		 * Copies the keys into an array ordered by value, so
+		 * that dest[getIndex(key)] == key. For a map built from
+		 * orderedKeys this is a copy of that array.
+		 *
+		 * @param dest - the array to fill, if it is null or too short
+		 * 			a new array is allocated instead.
+		 * @return the array holding the keys
+		 */
+		@Override
+		public short[] copyKeys(short[] dest){
+			int maxValue = -1;
+			for (int slot = 0 ; slot < keys.length ; slot++){
+				if (keys[slot]!=nullKey){
+					maxValue = Math.max(maxValue, values[slot]);
+				}
+			}
+			short[] orderedKeys = dest != null && dest.length > maxValue ? dest : new short[maxValue+1];
+			for (int slot = 0 ; slot < keys.length ; slot++){
+				if (keys[slot]!=nullKey){
+					orderedKeys[values[slot]] = keys[slot];
+				}
+			}
+			return orderedKeys;
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof ShortFastMap){
+				ShortFastMap otherMap = ((ShortFastMap)other);
+				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex){
+					return false;
+				}
+				return
+						Arrays.equals(this.keys, otherMap.keys) &&
+						Arrays.equals(this.values, otherMap.values) &&
+						Arrays.equals(this.next, otherMap.next);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return size;
+		}
+
+		public Iterable<Short> keyIterable(){
+			return new Iterable<Short>() {
+
+				@Override
+				public Iterator<Short> iterator() {
+					return new Iterator<Short>() {
+						int index = nextIndex(-1);
+						@Override
+						public boolean hasNext() {
+							return index < length;
+						}
+
+						private int nextIndex(int index) {
+							do{
+								index++;
+							} while((index<length && keys[index]==nullKey));
+							return index;
+						}
+
+						@Override
+						public Short next() {
+							short value = keys[index];
+							index = nextIndex(index);
+							return value;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+
+		/**
+		 * The builder allows the construction of the map
+		 * inserting one key-value pair at a time, as FastMapV5.Builder.
+		 *
+		 * Once build() has been called, the map is returned, and
+		 * further attempts to call put() will result in an IllegalStateException,
+		 * preserving the maps immutability.
+		 *
+		 * @param capacity - the maximum number of pairs to be stored.
+		 * @return a builder
+		 */
+		public static Builder getBuilder(int capacity) {
+			return new ShortFastMap(checkSize(capacity)).new Builder(capacity);
+		}
+
+		public class Builder {
+			final private short[] collissionKeys;
+			final private short[] collissionValues;
+			int index=0;
+			int count=0;
+			boolean complete=false;
+			private Builder(int maxSize){
+				collissionKeys=new short[maxSize];
+				collissionValues= new short[maxSize];
+			}
+
+			public void put(short key, short value) {
+				if (complete){
+					throw new IllegalStateException("Map has already been built");
+				}
+				if (count == collissionKeys.length){
+					throw new IllegalStateException("Capacity "+collissionKeys.length+" exceeded");
+				}
+				boolean added = putIfBucketEmpty(key, checkValue(value));
+				if (!added){
+					collissionKeys[index]=key;
+					collissionValues[index]=value;
+					index++;
+				}
+				count++;
+			}
+
+			public ShortFastMap build() {
+				final int collissionCount = index;
+				if (collissionCount > 0){
+					PigeonHoleTables.EmptySlots emptySlots = PigeonHoleTables.EmptySlots.of(keys, nullKey);
+					for (int i = 0 ; i< collissionCount; i++){
+						handleCollission(emptySlots, collissionKeys[i], collissionValues[i]);
+					}
+				}
+
+				complete= true;
+				size = count;
+				return ShortFastMap.this;
+			}
+
+		}
 }
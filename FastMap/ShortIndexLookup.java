@@ -0,0 +1,74 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.util.function.IntConsumer;
+
+
+/**
+ * The 16 bit key equivalent of IndexLookup.
+ *
+ * Provides a 1-1 link from a given short primary key to an index,
+ * for keys that fit in 16 bits, such as SimpleDate.compressedHash
+ * or small venue codes. For any given
+ * 		short primaryKey = primaryKeys[index];
+ * this provides a fast way to reverse that process, namely
+ * 		int index = shortFastMap.getIndex(primaryKey);
+ *
+ * As with IndexLookup, no methods are provided to modify the
+ * map after construction.
+ *
+ * @author Keating Finance
+ *
+ */
+public interface ShortIndexLookup extends Serializable{
+	int getIndex(short primaryKey);
+	boolean containsKey(short primaryKey);
+	Iterable<Short> keyIterable();
+	int size();
+	/**
+	 * The value returned by getIndex when a key is not present.
+	 * @return
+	 */
+	int getNullIndex();
+	/**
+	 * Bulk version of getIndex, see IndexLookup.getIndices
+	 *
+	 * @param primaryKeys - the keys to look up
+	 * @param from - first position, inclusive
+	 * @param to - last position, exclusive
+	 * @param out - receives the indices, at the same positions as the keys
+	 * @return the number of keys that were not found
+	 */
+	default int getIndices(short[] primaryKeys, int from, int to, int[] out){
+		final int nullIndex = getNullIndex();
+		int misses = 0;
+		for (int i = from ; i < to ; i++){
+			int index = getIndex(primaryKeys[i]);
+			out[i] = index;
+			if (index == nullIndex){
+				misses++;
+			}
+		}
+		return misses;
+	}
+	/**
+	 * Calls action with every key, widened to an int, in no particular
+	 * order and without boxing.
+	 * @param action
+	 */
+	void forEachKey(IntConsumer action);
+	/**
+	 * Calls action with every key, widened to an int, and its index.
+	 * @param action
+	 */
+	void forEachEntry(IntIntConsumer action);
+	/**
+	 * Copies the keys into an array ordered by index, so that
+	 * 		dest[getIndex(key)] == key
+	 * which is the orderedKeys array the map was built from.
+	 *
+	 * @param dest - the array to fill, if it is null or too short
+	 * 			a new array is allocated instead.
+	 * @return the array holding the keys
+	 */
+	short[] copyKeys(short[] dest);
+}
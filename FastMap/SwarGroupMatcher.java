@@ -0,0 +1,49 @@
+package com.keatingfinance.datastruct;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Matches a group of 16 control bytes as two longs, using the
+ * "SIMD within a register" tricks: the tag is xor-ed into every byte
+ * and the bytes that became zero are found with a subtract and mask.
+ * Where a true match is followed by a byte holding tag^1 the borrow can
+ * flag that byte too, which GroupMatcher allows.
+ *
+ * The result has the high bit of each matching byte set; these are
+ * gathered into one bit per byte by a single multiply.
+ *
+ * @author Oliver Keating
+ *
+ */
+final class SwarGroupMatcher implements GroupMatcher {
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	/*
+	 * moves the bit at 8*i to 56+i, for i = 0 to 7
+	 */
+	private static final long GATHER = 0x0102040810204080L;
+
+	@Override
+	public int match(byte[] ctrl, int base, byte tag) {
+		long pattern = (tag & 0xffL) * LOW_BITS;
+		long low = (long) LONGS.get(ctrl, base) ^ pattern;
+		long high = (long) LONGS.get(ctrl, base+8) ^ pattern;
+		return gather((low - LOW_BITS) & ~low & HIGH_BITS)
+				| (gather((high - LOW_BITS) & ~high & HIGH_BITS) << 8);
+	}
+
+	@Override
+	public int matchEmpty(byte[] ctrl, int base) {
+		//only EMPTY has the high bit set
+		return gather((long) LONGS.get(ctrl, base) & HIGH_BITS)
+				| (gather((long) LONGS.get(ctrl, base+8) & HIGH_BITS) << 8);
+	}
+
+	static int gather(long highBits){
+		return (int) (((highBits >>> 7) * GATHER) >>> 56);
+	}
+}
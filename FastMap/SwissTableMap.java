@@ -0,0 +1,330 @@
+package com.keatingfinance.datastruct;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+	/**
+	 * SwissTableMap is an open addressing IndexLookup in the style of
+	 * Abseil's "Swiss tables", which can be run at a much higher load
+	 * factor than FastMapV5.
+	 *
+	 * The slots are split into groups of GROUP_WIDTH (16). Alongside the
+	 * slots is a control byte array with one byte per slot, holding either
+	 * EMPTY or a 7 bit tag taken from the key's hash. A lookup hashes the
+	 * key once; the remaining bits choose the home group, and the group's
+	 * 16 control bytes are compared with the tag in one operation (see
+	 * GroupMatcher). Only slots whose tag matches have their key compared,
+	 * which with 7 bit tags is almost always only the right one. If the
+	 * group has an empty slot the key cannot be further on and the lookup
+	 * stops, otherwise it moves on to another group.
+	 *
+	 * So a typical hit reads one 16 byte run of control bytes and one
+	 * entry, and this hardly changes as the table fills, which is what
+	 * allows the high load factor. Misses are dearer at high load, as they
+	 * must go on past every full group: at the default load factor of
+	 * 0.875 a little under half the groups are full, at 0.75 under a fifth.
+	 *
+	 * The number of groups need not be a power of two (the home group is
+	 * chosen with a multiply rather than a mask), so the table is sized to
+	 * the keys, not to the next power of two above them as
+	 * FastMapV5.calculateLength does. The number of groups is the next
+	 * prime, so that the groups after the home group can be visited with
+	 * a step taken from the hash (double hashing), and keys overflowing
+	 * the same group do not all pile into its neighbour.
+	 *
+	 * Each entry is one long, the key in the high half and the value in the
+	 * low half, so the key and value are always in the same cache line.
+	 *
+	 * The groups are matched with the jdk.incubator.vector API when that
+	 * module is enabled (--add-modules jdk.incubator.vector) and the
+	 * FastMapVector directory has been compiled, otherwise with SWAR
+	 * arithmetic on two longs. See VectorGroupMatcher and SwarGroupMatcher.
+	 * Both give the same results.
+	 *
+	 * Since the control bytes mark empty slots, any int may be a key.
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class SwissTableMap implements IndexLookup, Serializable{
+
+		private static final long serialVersionUID = -5275632102829584133L;
+		final public static int GROUP_WIDTH = 16;
+		final public static int MAX_SIZE = 1 << 29;
+		final public static float DEFAULT_LOAD_FACTOR = 0.875f;
+		final public static float MAX_LOAD_FACTOR = 0.9375f;
+		final static byte EMPTY = (byte) 0x80;
+		final private static int TAG_BITS = 7;
+		final private static int TAG_MASK = (1 << TAG_BITS) - 1;
+		final private static GroupMatcher MATCHER = createMatcher();
+
+		final private int groupCount;
+		final private int size;
+		final private byte[] ctrl;
+		final private long[] entries;
+
+		/*
+		 * this is what is returned if it does not exist,
+		 * as with primitives, we cannot simply return null
+		 * Can be changed to point somewhere else.
+		 */
+		private int nullIndex = -1;
+
+
+		public SwissTableMap(UniqueHash[] orderedKeys){
+			this(FastMapV5.toIntArray(orderedKeys));
+		}
+		public SwissTableMap(int[] orderedKeys) {
+			this(orderedKeys, DEFAULT_LOAD_FACTOR);
+		}
+		/**
+		 * @param orderedKeys - ordered in the sense that the index of
+		 * 			each key will become it's associated value.
+		 * 			Must have a length <= MAX_SIZE
+		 * @param loadFactor - the greatest fraction of slots to fill,
+		 * 			above 0 and at most MAX_LOAD_FACTOR. The table will have
+		 * 			the fewest whole groups that keep to this.
+		 */
+		public SwissTableMap(int[] orderedKeys, float loadFactor){
+			if (!(loadFactor > 0) || loadFactor > MAX_LOAD_FACTOR){
+				throw new IllegalArgumentException("Load factor must be > 0 and <= "+MAX_LOAD_FACTOR+" : "+loadFactor);
+			}
+			if (orderedKeys.length > MAX_SIZE){
+				throw new IllegalArgumentException("Too big: "+orderedKeys.length+" Maximum size is "+MAX_SIZE);
+			}
+			size = orderedKeys.length;
+			long slots = (long) Math.ceil(size / (double) loadFactor);
+			groupCount = nextPrime((int) Math.max(2, (slots + GROUP_WIDTH - 1) / GROUP_WIDTH));
+			ctrl = new byte[groupCount * GROUP_WIDTH];
+			entries = new long[groupCount * GROUP_WIDTH];
+			Arrays.fill(ctrl, EMPTY);
+			for (int i = 0 ; i < orderedKeys.length ; i++){
+				put(orderedKeys[i], i);
+			}
+		}
+
+		private static GroupMatcher createMatcher(){
+			if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+				try {
+					return (GroupMatcher) Class.forName("com.keatingfinance.datastruct.VectorGroupMatcher")
+							.getDeclaredConstructor().newInstance();
+				} catch (ReflectiveOperationException | LinkageError e) {
+					//not compiled in, fall back to SWAR
+				}
+			}
+			return new SwarGroupMatcher();
+		}
+
+		/**
+		 * @return true if the groups are matched with the Vector API
+		 */
+		public static boolean usesVectorApi(){
+			return !(MATCHER instanceof SwarGroupMatcher);
+		}
+
+		private static int hash(int key){
+			return HashSpreader.MURMUR.spread(key, 0);
+		}
+
+		private static int nextPrime(int n){
+			while (!BigInteger.valueOf(n).isProbablePrime(32)){
+				n++;
+			}
+			return n;
+		}
+
+		/**
+		 * The groups to try after the home group are home+step, home+2*step...
+		 * As groupCount is prime, every step from 1 to groupCount-1 visits
+		 * all the groups, and keys from the same home group spread out
+		 * rather than overflowing into the same neighbours.
+		 */
+		private int step(int hash){
+			int mixed = Integer.rotateLeft(hash, 16) * 0x9e3779b9;
+			return 1 + (int) (((mixed & 0xffffffffL) * (groupCount-1)) >>> 32);
+		}
+
+		/**
+		 * The home group from the high bits of the hash, by
+		 * multiplying rather than masking, so that groupCount
+		 * need not be a power of two.
+		 */
+		private int homeGroup(int hash){
+			return (int) (((hash >>> TAG_BITS) * (long) groupCount) >>> (32 - TAG_BITS));
+		}
+
+		private void put(int key, int value){
+			final int hash = hash(key);
+			final byte tag = (byte) (hash & TAG_MASK);
+			int group = homeGroup(hash);
+			int step = 0;
+			while (true){
+				final int base = group * GROUP_WIDTH;
+				for (int matches = MATCHER.match(ctrl, base, tag) ; matches != 0 ; matches &= matches-1){
+					int slot = base + Integer.numberOfTrailingZeros(matches);
+					if ((int) (entries[slot] >>> 32) == key){
+						throw new IllegalArgumentException("Duplicated key:"+key);
+					}
+				}
+				int empty = MATCHER.matchEmpty(ctrl, base);
+				if (empty != 0){
+					int slot = base + Integer.numberOfTrailingZeros(empty);
+					ctrl[slot] = tag;
+					entries[slot] = (((long) key) << 32) | (value & 0xffffffffL);
+					return;
+				}
+				if (step == 0){
+					step = step(hash);
+				}
+				group += step;
+				if (group >= groupCount){
+					group -= groupCount;
+				}
+			}
+		}
+
+		public int size(){
+			return size;
+		}
+
+		public boolean containsKey(int key){
+			return getIndex(key)!=nullIndex;
+		}
+
+		public int getIndex(int key){
+			final int hash = hash(key);
+			final byte tag = (byte) (hash & TAG_MASK);
+			int group = homeGroup(hash);
+			int step = 0;
+			for (int probed = 0 ; probed < groupCount ; probed++){
+				final int base = group * GROUP_WIDTH;
+				for (int matches = MATCHER.match(ctrl, base, tag) ; matches != 0 ; matches &= matches-1){
+					long entry = entries[base + Integer.numberOfTrailingZeros(matches)];
+					if ((int) (entry >>> 32) == key){
+						return (int) entry;
+					}
+				}
+				if (MATCHER.matchEmpty(ctrl, base) != 0){
+					return nullIndex;
+				}
+				if (step == 0){
+					step = step(hash);
+				}
+				group += step;
+				if (group >= groupCount){
+					group -= groupCount;
+				}
+			}
+			return nullIndex;
+		}
+
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		public int tableLength(){
+			return ctrl.length;
+		}
+
+		public double getLoadFactor(){
+			return ((double) size) / ctrl.length;
+		}
+
+		@Override
+		public void forEachKey(IntConsumer action){
+			for (int slot = 0 ; slot < ctrl.length ; slot++){
+				if (ctrl[slot]!=EMPTY){
+					action.accept((int) (entries[slot] >>> 32));
+				}
+			}
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			for (int slot = 0 ; slot < ctrl.length ; slot++){
+				if (ctrl[slot]!=EMPTY){
+					action.accept((int) (entries[slot] >>> 32), (int) entries[slot]);
+				}
+			}
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			int[] orderedKeys = dest != null && dest.length >= size ? dest : new int[size];
+			for (int slot = 0 ; slot < ctrl.length ; slot++){
+				if (ctrl[slot]!=EMPTY){
+					orderedKeys[(int) entries[slot]] = (int) (entries[slot] >>> 32);
+				}
+			}
+			return orderedKeys;
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof SwissTableMap){
+				SwissTableMap otherMap = ((SwissTableMap)other);
+				if (this.size!=otherMap.size || this.nullIndex!=otherMap.nullIndex){
+					return false;
+				}
+				return
+						Arrays.equals(this.ctrl, otherMap.ctrl) &&
+						Arrays.equals(this.entries, otherMap.entries);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return size;
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return new Iterable<Integer>() {
+
+				@Override
+				public Iterator<Integer> iterator() {
+					return keyIterator();
+				}
+			};
+		}
+
+		public Iterator<Integer> keyIterator(){
+			return new Iterator<Integer>() {
+				int index = nextIndex(-1);
+				@Override
+				public boolean hasNext() {
+					return index < ctrl.length;
+				}
+
+				private int nextIndex(int index) {
+					do{
+						index++;
+					} while((index<ctrl.length && ctrl[index]==EMPTY));
+					return index;
+				}
+
+				@Override
+				public Integer next() {
+					int value = (int) (entries[index] >>> 32);
+					index = nextIndex(index);
+					return value;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
@@ -0,0 +1,182 @@
+package com.keatingfinance.datastruct;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+	/**
+	 * UniqueHashRegistry holds an array of UniqueHash objects together with
+	 * the IndexLookup of their hash codes, so the object for a hash can be
+	 * found without the caller keeping a T[] beside a FastMapV5:
+	 *
+	 * 	T t = registry.get(hash);
+	 * 	int index = registry.indexOf(t);
+	 *
+	 * The lookup is built with IndexLookups.build, which for most universes
+	 * is a FastMapV5. The objects are held in index order, so get is one
+	 * getIndex followed by one array load.
+	 *
+	 * The registry also is the IndexLookup of the hashes, so it can be
+	 * passed anywhere a FastMapV5 built from the same objects was.
+	 *
+	 * Like FastMapV5 it is immutable and thread-safe. It is Serializable
+	 * if the objects are.
+	 *
+	 * @author Oliver Keating
+	 *
+	 * @param <T>
+	 */
+	public final class UniqueHashRegistry<T extends UniqueHash> implements IndexLookup, Iterable<T>{
+
+		private static final long serialVersionUID = 4417935201466317125L;
+		@SuppressWarnings("serial") // Serializable if the objects are
+		final private T[] objects;
+		final private IndexLookup lookup;
+
+		/**
+		 * @param orderedObjects - ordered in the sense that the index of
+		 * 			each object will become it's associated value. The array
+		 * 			is copied. Throws IllegalArgumentException if two objects
+		 * 			have the same hash code.
+		 */
+		public UniqueHashRegistry(T[] orderedObjects){
+			this.objects = orderedObjects.clone();
+			this.lookup = IndexLookups.build(FastMapV5.toIntArray(objects));
+		}
+
+		/**
+		 * @param hash
+		 * @return the object with this hash code, or null if there is none
+		 */
+		public T get(int hash){
+			int index = lookup.getIndex(hash);
+			return index == lookup.getNullIndex() ? null : objects[index];
+		}
+
+		/**
+		 * @param index - between 0 and size()-1
+		 * @return the object at this index
+		 */
+		public T getAt(int index){
+			return objects[index];
+		}
+
+		/**
+		 * @param t
+		 * @return the index of t (found by its hash code), or the null index
+		 * 		if t is null or not registered
+		 */
+		public int indexOf(T t){
+			return t == null ? lookup.getNullIndex() : lookup.getIndex(t.hashCode());
+		}
+
+		public boolean contains(T t){
+			return indexOf(t) != lookup.getNullIndex();
+		}
+
+		/**
+		 * @return a copy of the objects, in index order
+		 */
+		public T[] toArray(){
+			return objects.clone();
+		}
+
+		public int getIndex(int hash){
+			return lookup.getIndex(hash);
+		}
+
+		public boolean containsKey(int hash){
+			return lookup.containsKey(hash);
+		}
+
+		public int size(){
+			return objects.length;
+		}
+
+		public int getNullIndex(){
+			return lookup.getNullIndex();
+		}
+
+		@Override
+		public int getIndices(int[] hashes, int from, int to, int[] out){
+			return lookup.getIndices(hashes, from, to, out);
+		}
+
+		/**
+		 * Calls action with every hash code, in index order.
+		 */
+		@Override
+		public void forEachKey(IntConsumer action){
+			for (T t : objects){
+				action.accept(t.hashCode());
+			}
+		}
+
+		/**
+		 * Calls action with every hash code and its index, in index order.
+		 */
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			for (int i = 0 ; i < objects.length ; i++){
+				action.accept(objects[i].hashCode(), i);
+			}
+		}
+
+		/**
+		 * Calls action with every object and its index, in index order.
+		 * @param action
+		 */
+		public void forEach(ObjIntConsumer<? super T> action){
+			for (int i = 0 ; i < objects.length ; i++){
+				action.accept(objects[i], i);
+			}
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			return lookup.copyKeys(dest);
+		}
+
+		@Override public boolean equals(Object other){
+			if (this==other){
+				return true;
+			}
+			if (other instanceof UniqueHashRegistry){
+				return Arrays.equals(this.objects, ((UniqueHashRegistry<?>)other).objects);
+			}
+			return false;
+		}
+
+		@Override public int hashCode(){
+			return objects.length;
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return lookup.keyIterable();
+		}
+
+		@Override
+		public Iterator<T> iterator(){
+			return new Iterator<T>() {
+				int index = 0;
+				@Override
+				public boolean hasNext() {
+					return index < objects.length;
+				}
+
+				@Override
+				public T next() {
+					if (index == objects.length){
+						throw new NoSuchElementException();
+					}
+					return objects[index++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
@@ -0,0 +1,200 @@
+package com.keatingfinance.datastruct;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reconciles two universes of keys, e.g. yesterday's instruments and
+ * today's, each held as an IndexLookup built from an orderedKeys array.
+ *
+ * merge(oldMap, newMap) gives:
+ *
+ * 	oldToNew - for each old index, the new index of the same key,
+ * 		or ABSENT if the key has been removed.
+ * 	newToOld - for each new index, the old index of the same key,
+ * 		or ABSENT if the key has been added.
+ * 	removedKeys - the old keys missing from the new map, in old index order.
+ * 	addedKeys - the new keys missing from the old map, in new index order.
+ * 	union - an IndexLookup of every key in either map. The old keys keep
+ * 		their old indices, and the added keys follow them, so
+ * 			union.getIndex(addedKeys[i]) == oldMap.size() + i
+ * 		and columns indexed by the old map can be extended in place.
+ *
+ * Everything is done on primitive arrays: the keys are copied out with
+ * copyKeys, and each map is looked up with the other's keys through
+ * getIndices. Above ParallelFastMapBuilder.SEQUENTIAL_THRESHOLD keys the
+ * lookups are split over a ForkJoinPool. The union is built with
+ * IndexLookups.build(int[], ForkJoinPool) on the same pool.
+ *
+ * Neither map may use a real index (0 to size()-1) as its null index,
+ * as removed and added keys could not then be told apart.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class UniverseMerge {
+
+	/**
+	 * The remap entry of a key that is not in the other map
+	 */
+	public static final int ABSENT = -1;
+
+	private final IndexLookup union;
+	private final int[] oldToNew;
+	private final int[] newToOld;
+	private final int[] addedKeys;
+	private final int[] removedKeys;
+
+	private UniverseMerge(IndexLookup union, int[] oldToNew, int[] newToOld, int[] addedKeys, int[] removedKeys){
+		this.union=union;
+		this.oldToNew=oldToNew;
+		this.newToOld=newToOld;
+		this.addedKeys=addedKeys;
+		this.removedKeys=removedKeys;
+	}
+
+	public static UniverseMerge merge(IndexLookup oldMap, IndexLookup newMap){
+		return merge(oldMap, newMap, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param oldMap - the previous universe
+	 * @param newMap - the current universe
+	 * @param pool - runs the lookups of large universes
+	 * @return the remaps, added and removed keys and union of the two maps
+	 */
+	public static UniverseMerge merge(IndexLookup oldMap, IndexLookup newMap, ForkJoinPool pool){
+		checkNullIndex(oldMap);
+		checkNullIndex(newMap);
+		final int[] oldKeys = oldMap.copyKeys(null);
+		final int[] newKeys = newMap.copyKeys(null);
+		final int[] oldToNew = new int[oldKeys.length];
+		final int[] newToOld = new int[newKeys.length];
+		final int removedCount = pool.invoke(new Remap(newMap, oldKeys, oldToNew, 0, oldKeys.length));
+		final int addedCount = pool.invoke(new Remap(oldMap, newKeys, newToOld, 0, newKeys.length));
+
+		final int[] removedKeys = new int[removedCount];
+		for (int i = 0, r = 0 ; r < removedCount ; i++){
+			if (oldToNew[i] == ABSENT){
+				removedKeys[r++] = oldKeys[i];
+			}
+		}
+		final int[] unionKeys = new int[oldKeys.length + addedCount];
+		System.arraycopy(oldKeys, 0, unionKeys, 0, oldKeys.length);
+		final int[] addedKeys = new int[addedCount];
+		for (int i = 0, a = 0 ; a < addedCount ; i++){
+			if (newToOld[i] == ABSENT){
+				unionKeys[oldKeys.length + a] = newKeys[i];
+				addedKeys[a++] = newKeys[i];
+			}
+		}
+		return new UniverseMerge(IndexLookups.build(unionKeys, pool), oldToNew, newToOld, addedKeys, removedKeys);
+	}
+
+	private static void checkNullIndex(IndexLookup map){
+		int nullIndex = map.getNullIndex();
+		if (nullIndex >= 0 && nullIndex < map.size()){
+			throw new IllegalArgumentException("Null index "+nullIndex+" is a real index of a map of size "+map.size());
+		}
+	}
+
+	/**
+	 * Looks up keys[from, to) in map, writing the indices to out
+	 * with ABSENT for missing keys, and returns the number missing.
+	 */
+	private static final class Remap extends RecursiveTask<Integer>{
+		private static final long serialVersionUID = 1L;
+		final IndexLookup map;
+		final int[] keys;
+		final int[] out;
+		final int from;
+		final int to;
+		Remap(IndexLookup map, int[] keys, int[] out, int from, int to){
+			this.map=map;
+			this.keys=keys;
+			this.out=out;
+			this.from=from;
+			this.to=to;
+		}
+		@Override
+		protected Integer compute() {
+			if (to-from <= ParallelFastMapBuilder.SEQUENTIAL_THRESHOLD){
+				int misses = map.getIndices(keys, from, to, out);
+				final int nullIndex = map.getNullIndex();
+				if (misses > 0 && nullIndex != ABSENT){
+					for (int i = from ; i < to ; i++){
+						if (out[i] == nullIndex){
+							out[i] = ABSENT;
+						}
+					}
+				}
+				return misses;
+			}
+			int mid = (from+to) >>> 1;
+			Remap right = new Remap(map, keys, out, mid, to);
+			right.fork();
+			int misses = new Remap(map, keys, out, from, mid).compute();
+			return misses + right.join();
+		}
+	}
+
+	/**
+	 * @return every key in either map, old keys at their old
+	 * 		indices followed by the added keys
+	 */
+	public IndexLookup getUnion(){
+		return union;
+	}
+
+	/**
+	 * @return for each old index, the new index or ABSENT
+	 */
+	public int[] getOldToNew(){
+		return oldToNew;
+	}
+
+	/**
+	 * @return for each new index, the old index or ABSENT
+	 */
+	public int[] getNewToOld(){
+		return newToOld;
+	}
+
+	public int[] getAddedKeys(){
+		return addedKeys;
+	}
+
+	public int[] getRemovedKeys(){
+		return removedKeys;
+	}
+
+	/**
+	 * Carries a column indexed by the old map forward to the new map.
+	 * @param oldColumn - one value per old index
+	 * @param missing - the value given to added keys
+	 * @return one value per new index
+	 */
+	public double[] carryForward(double[] oldColumn, double missing){
+		double[] newColumn = new double[newToOld.length];
+		for (int i = 0 ; i < newToOld.length ; i++){
+			int oldIndex = newToOld[i];
+			newColumn[i] = oldIndex == ABSENT ? missing : oldColumn[oldIndex];
+		}
+		return newColumn;
+	}
+
+	/**
+	 * Carries a column indexed by the old map forward to the new map.
+	 * @param oldColumn - one value per old index
+	 * @param missing - the value given to added keys
+	 * @return one value per new index
+	 */
+	public int[] carryForward(int[] oldColumn, int missing){
+		int[] newColumn = new int[newToOld.length];
+		for (int i = 0 ; i < newToOld.length ; i++){
+			int oldIndex = newToOld[i];
+			newColumn[i] = oldIndex == ABSENT ? missing : oldColumn[oldIndex];
+		}
+		return newColumn;
+	}
+}
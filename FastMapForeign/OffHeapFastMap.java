@@ -0,0 +1,446 @@
+package com.keatingfinance.datastruct;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+	/**
+	 * OffHeapFastMap is a pigeon hole hashed IndexLookup, laid out as
+	 * PackedFastMap, whose buckets are held in native memory rather than
+	 * in an int[] on the heap:
+	 *
+	 * 	int 4*b   key
+	 * 	int 4*b+1 value
+	 * 	int 4*b+2 next
+	 * 	int 4*b+3 unused
+	 *
+	 * Large maps that are built once and never change still have to be
+	 * traced by every old generation collection while they are on the heap.
+	 * Off the heap they cost the collector nothing, and the heap can be
+	 * sized for the data that really does change. The heap part of the map
+	 * is a few fields.
+	 *
+	 * The memory belongs to an Arena, and is freed when the arena is
+	 * closed. An arena may be passed in, so that the maps of one universe can
+	 * be freed together, in which case whoever opened the arena closes it.
+	 * Otherwise the map opens its own shared arena, which is closed by
+	 * close(), or by a Cleaner once the map is unreachable if close() is
+	 * never called. Any lookup after the arena is closed throws an
+	 * IllegalStateException rather than reading freed memory. The arena must
+	 * be a shared arena if the map is to be read from more than one thread.
+	 *
+	 * As with FastMapV5, the map can be built from an orderedKeys array,
+	 * copied from an existing FastMapV5 or LargeFastMap (the buckets are
+	 * copied as they are), or built one pair at a time with a Builder.
+	 *
+	 * This class uses the foreign memory API, java.lang.foreign, which is
+	 * final in JDK 22 and a preview in JDK 21 (javac and java need
+	 * --enable-preview there). So that the FastMap directory still compiles
+	 * with older JDKs, it is kept in a source directory of its own, compiled
+	 * after FastMap into the same output, as FastMapVector is:
+	 *
+	 * 	javac -d classes FastMap/*.java ...
+	 * 	javac -cp classes -d classes FastMapForeign/*.java
+	 *
+	 * Serializing writes the keys, not the memory. A deserialized map is
+	 * rebuilt in a new arena of its own, to be freed with close().
+	 *
+	 * @author Oliver Keating
+	 *
+	 */
+	public final class OffHeapFastMap implements IndexLookup, AutoCloseable{
+
+		private static final long serialVersionUID = 3067519433472606314L;
+		final public static int MAX_SIZE = 1 << 30;
+		final private static float MULTIPLIER = 1.0f;
+		final private static int STRIDE = 4;
+		final private static int VALUE = 1;
+		final private static int NEXT = 2;
+		final private static long ALIGNMENT = 64;
+		/*
+		 * closes the arenas of owning maps that are never closed
+		 */
+		final private static Cleaner CLEANER = Cleaner.create();
+		final private int length;
+		final private int lengthMask;
+		final private int shift;
+		final private HashSpreader spreader;
+		final private transient MemorySegment slots;
+		/*
+		 * closes the arena if the map owns it, otherwise null
+		 */
+		final private transient Cleaner.Cleanable cleanable;
+		/*
+		 * only set by a Builder before the map is returned to the caller
+		 */
+		private int size;
+
+		/*
+		 * this is what is returned if it does not exist,
+		 * as with primitives, we cannot simply return null
+		 * Can be changed to point somewhere else.
+		 */
+		private int nullIndex = -1;
+
+
+		public OffHeapFastMap(UniqueHash[] orderedKeys){
+			this(FastMapV5.toIntArray(orderedKeys));
+		}
+		public OffHeapFastMap(int[] orderedKeys) {
+			this(orderedKeys, MULTIPLIER, HashSpreader.IDENTITY);
+		}
+		/**
+		 * Builds the map in an arena of its own, freed by close()
+		 */
+		public OffHeapFastMap(int[] orderedKeys, float multiplier, HashSpreader spreader){
+			this(orderedKeys, multiplier, spreader, Arena.ofShared(), true);
+		}
+		/**
+		 * Constructor, orderedKeys, multiplier and the hash spreader,
+		 * as for LargeFastMap.
+		 *
+		 * @param orderedKeys - ordered in the sense that the index of
+		 * 			each key will become it's associated value.
+		 * 			Must have a length <= MAX_SIZE
+		 * @param multiplier - must be at least 1
+		 * @param spreader
+		 * @param arena - owns the memory, closed by the caller
+		 */
+		public OffHeapFastMap(int[] orderedKeys, float multiplier, HashSpreader spreader, Arena arena){
+			this(orderedKeys, multiplier, spreader, arena, false);
+		}
+
+		private OffHeapFastMap(int[] orderedKeys, float multiplier, HashSpreader spreader, Arena arena, boolean ownsArena){
+			this(orderedKeys, calculateLength(checkSize(orderedKeys.length), checkMultiplier(multiplier)), spreader, arena, ownsArena);
+		}
+
+		private OffHeapFastMap(int[] orderedKeys, int length, HashSpreader spreader, Arena arena, boolean ownsArena){
+			this(length, spreader, arena, ownsArena);
+			size = orderedKeys.length;
+			PigeonHoleTables.putAll(table(), orderedKeys);
+		}
+
+		/**
+		 * An empty table, every int -1
+		 */
+		private OffHeapFastMap(int length, HashSpreader spreader, Arena arena, boolean ownsArena){
+			this.length = length;
+			this.lengthMask = length-1;
+			this.shift = HashSpreader.shiftFor(lengthMask);
+			this.spreader = spreader;
+			this.slots = arena.allocate(((long) length) * STRIDE * Integer.BYTES, ALIGNMENT);
+			//the action must not refer to the map, or the map would never be unreachable
+			this.cleanable = ownsArena ? CLEANER.register(this, arena::close) : null;
+			slots.fill((byte) -1);
+		}
+
+		/**
+		 * Copies the buckets of map off the heap, into an arena of its own.
+		 * Lookups follow the same chains as in map.
+		 * @param map
+		 * @return
+		 */
+		public static OffHeapFastMap copyOf(FastMapV5 map){
+			return copyOf(map.table(), Arena.ofShared(), true);
+		}
+		public static OffHeapFastMap copyOf(FastMapV5 map, Arena arena){
+			return copyOf(map.table(), arena, false);
+		}
+		public static OffHeapFastMap copyOf(LargeFastMap map){
+			return copyOf(map.table(), Arena.ofShared(), true);
+		}
+		public static OffHeapFastMap copyOf(LargeFastMap map, Arena arena){
+			return copyOf(map.table(), arena, false);
+		}
+
+		private static OffHeapFastMap copyOf(PigeonHoleTable table, Arena arena, boolean ownsArena){
+			OffHeapFastMap map = new OffHeapFastMap(table.tableLength(), table.getSpreader(), arena, ownsArena);
+			for (int b = 0 ; b < map.length ; b++){
+				map.set(b, table.keyAt(b), table.valueAt(b), table.nextAt(b));
+			}
+			map.size = table.size();
+			map.nullIndex = table.getNullIndex();
+			return map;
+		}
+
+		private static int checkSize(int size){
+			return PigeonHoleTables.checkSize(size, MAX_SIZE);
+		}
+
+		private static float checkMultiplier(float multiplier){
+			return PigeonHoleTables.checkMultiplier(multiplier);
+		}
+
+		static int calculateLength(int keyLength, float multiplier) {
+			return PigeonHoleTables.calculateLength(keyLength, multiplier, MAX_SIZE);
+		}
+
+		private void set(int bucket, int key, int value, int next){
+			long slot = ((long) bucket)*STRIDE;
+			slots.setAtIndex(JAVA_INT, slot, key);
+			slots.setAtIndex(JAVA_INT, slot+VALUE, value);
+			slots.setAtIndex(JAVA_INT, slot+NEXT, next);
+		}
+
+		public int size(){
+			return size;
+		}
+
+		protected int getEntryIndex(int bitPattern){
+			if (spreader == HashSpreader.IDENTITY){
+				return bitPattern & lengthMask;
+			}
+			return spreader.spread(bitPattern, shift) & lengthMask;
+		}
+
+		public boolean containsKey(int key){
+			return getIndex(key)!=nullIndex;
+		}
+
+		public int getIndex(int key){
+			long slot = ((long) getEntryIndex(key))*STRIDE;
+			try{
+				while (true){
+
+					if (key == slots.getAtIndex(JAVA_INT, slot)){
+						return slots.getAtIndex(JAVA_INT, slot+VALUE);
+					}
+
+					int index = slots.getAtIndex(JAVA_INT, slot+NEXT);
+					if (index==-1){
+						return nullIndex;
+					}
+					slot = ((long) index)*STRIDE;
+				}
+			} finally {
+				//the Cleaner must not close the arena while the map is being read
+				Reference.reachabilityFence(this);
+			}
+		}
+
+		public int getNullIndex(){
+			return nullIndex;
+		}
+
+		/**
+		 * Allows the caller to specify where "null" is contained
+		 * @param nullIndex
+		 */
+		public void setNullIndex(int nullIndex){
+			this.nullIndex=nullIndex;
+		}
+
+		/**
+		 * @return the native memory held by the map, in bytes
+		 */
+		public long byteSize(){
+			return slots.byteSize();
+		}
+
+		/**
+		 * @return false once the arena holding the memory has been closed
+		 */
+		public boolean isAlive(){
+			return slots.scope().isAlive();
+		}
+
+		/**
+		 * Frees the memory if the map opened its own arena. A map built
+		 * in an arena passed in by the caller is freed when that arena is
+		 * closed, and this does nothing.
+		 */
+		@Override
+		public void close(){
+			if (cleanable != null){
+				//runs the close at most once, and stops the Cleaner running it
+				cleanable.clean();
+			}
+		}
+
+		int tableLength(){
+			return length;
+		}
+		private int keyAt(int bucket){
+			return slots.getAtIndex(JAVA_INT, ((long) bucket)*STRIDE);
+		}
+		private int valueAt(int bucket){
+			return slots.getAtIndex(JAVA_INT, ((long) bucket)*STRIDE+VALUE);
+		}
+		private int nextAt(int bucket){
+			return slots.getAtIndex(JAVA_INT, ((long) bucket)*STRIDE+NEXT);
+		}
+
+		/**
+		 * Read access to the buckets
+		 */
+		PigeonHoleTable table(){
+			return new Table();
+		}
+
+		private final class Table implements PigeonHoleTable{
+			@Override public HashSpreader getSpreader(){
+				return spreader;
+			}
+			@Override public int tableLength(){
+				return length;
+			}
+			@Override public int keyAt(int bucket){
+				return OffHeapFastMap.this.keyAt(bucket);
+			}
+			@Override public int valueAt(int bucket){
+				return OffHeapFastMap.this.valueAt(bucket);
+			}
+			@Override public int nextAt(int bucket){
+				return OffHeapFastMap.this.nextAt(bucket);
+			}
+			@Override public int size(){
+				return size;
+			}
+			@Override public int getNullIndex(){
+				return nullIndex;
+			}
+			@Override public int entryIndex(int key){
+				return getEntryIndex(key);
+			}
+			@Override public void put(int bucket, int key, int value){
+				long slot = ((long) bucket)*STRIDE;
+				slots.setAtIndex(JAVA_INT, slot, key);
+				slots.setAtIndex(JAVA_INT, slot+VALUE, value);
+			}
+			@Override public void setNext(int bucket, int next){
+				slots.setAtIndex(JAVA_INT, ((long) bucket)*STRIDE+NEXT, next);
+			}
+		}
+
+		public HashSpreader getSpreader(){
+			return spreader;
+		}
+
+		public CollisionReport collisionReport(){
+			return CollisionReport.of(table());
+		}
+
+		/**
+		 * Walks the buckets, without boxing
+		 */
+		@Override
+		public void forEachKey(IntConsumer action){
+			PigeonHoleTables.forEachKey(table(), action);
+		}
+
+		@Override
+		public void forEachEntry(IntIntConsumer action){
+			PigeonHoleTables.forEachEntry(table(), action);
+		}
+
+		@Override
+		public int[] copyKeys(int[] dest){
+			return PigeonHoleTables.copyKeys(table(), dest);
+		}
+
+		public Iterable<Integer> keyIterable(){
+			return PigeonHoleTables.keyIterable(table());
+		}
+
+
+		public Iterator<Integer> keyIterator(){
+			return PigeonHoleTables.keyIterator(table());
+		}
+
+		/**
+		 * The builder allows the map to be constructed one key-value pair
+		 * at a time, as FastMapV5.Builder. The buckets are filled off the
+		 * heap as the pairs are put; only keys that collide are held on the
+		 * heap, until build().
+		 *
+		 * Once build() has been called, further attempts to call put()
+		 * will result in an IllegalStateException.
+		 *
+		 * @param capacity - the maximum number of pairs to be stored.
+		 * @return a builder for a map in an arena of its own
+		 */
+		public static Builder getBuilder(int capacity) {
+			return getBuilder(capacity, HashSpreader.IDENTITY);
+		}
+
+		public static Builder getBuilder(int capacity, HashSpreader spreader) {
+			return new OffHeapFastMap(calculateLength(checkSize(capacity), MULTIPLIER), spreader,
+					Arena.ofShared(), true).new Builder(capacity);
+		}
+
+		/**
+		 * @param capacity
+		 * @param spreader
+		 * @param arena - owns the memory, closed by the caller
+		 * @return a builder for a map in the given arena
+		 */
+		public static Builder getBuilder(int capacity, HashSpreader spreader, Arena arena) {
+			return new OffHeapFastMap(calculateLength(checkSize(capacity), MULTIPLIER), spreader,
+					arena, false).new Builder(capacity);
+		}
+
+		public class Builder {
+			final private PigeonHoleTables.Collisions collisions;
+			final private PigeonHoleTable table = table();
+			final private int capacity;
+			int count=0;
+			boolean complete=false;
+			private Builder(int maxSize){
+				collisions = new PigeonHoleTables.Collisions(maxSize);
+				capacity = maxSize;
+			}
+
+			public void put(int key, int value) {
+				if (complete){
+					throw new IllegalStateException("Map has already been built");
+				}
+				if (count == capacity){
+					throw new IllegalStateException("Capacity "+capacity+" exceeded");
+				}
+				collisions.put(table, key, value);
+				count++;
+			}
+
+			public OffHeapFastMap build() {
+				collisions.resolve(table);
+				complete= true;
+				size = count;
+				return OffHeapFastMap.this;
+			}
+
+		}
+
+		private Object writeReplace() throws ObjectStreamException{
+			return new SerialForm(this);
+		}
+
+		/**
+		 * The keys of the map, in index order, and how it was laid out.
+		 */
+		private static final class SerialForm implements Serializable{
+			private static final long serialVersionUID = 1L;
+			final int[] orderedKeys;
+			final int length;
+			final HashSpreader spreader;
+			final int nullIndex;
+
+			SerialForm(OffHeapFastMap map){
+				this.orderedKeys = map.copyKeys(null);
+				this.length = map.length;
+				this.spreader = map.spreader;
+				this.nullIndex = map.nullIndex;
+			}
+
+			private Object readResolve() throws ObjectStreamException{
+				OffHeapFastMap map = new OffHeapFastMap(orderedKeys, length, spreader, Arena.ofShared(), true);
+				map.setNullIndex(nullIndex);
+				return map;
+			}
+		}
+	}
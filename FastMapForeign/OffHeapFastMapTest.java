@@ -0,0 +1,88 @@
+package com.keatingfinance.datastruct;
+
+import java.lang.foreign.Arena;
+
+/**
+ * Tests OffHeapFastMap. Kept with it in FastMapForeign, so that FastMapTest
+ * compiles without the foreign memory API.
+ *
+ * @author Oliver Keating
+ *
+ */
+public class OffHeapFastMapTest {
+
+	/**
+	 * Runs checkArena, then runOffHeapTest with the number of keys as
+	 * the first arg
+	 * @param args
+	 */
+	public static void main(String... args){
+		checkArena();
+		runOffHeapTest(args.length>0 ? Integer.parseInt(args[0]) : 1<<22);
+	}
+
+	/**
+	 * Checks that a map in an arena passed in is freed with that arena, and
+	 * not by close(), and that a map in an arena of its own is freed by
+	 * close(), after which lookups throw rather than read freed memory.
+	 */
+	public static void checkArena(){
+		int[] keys = FastMapTest.createUniqueArray(1000);
+		OffHeapFastMap shared;
+		try (Arena arena = Arena.ofShared()){
+			shared = new OffHeapFastMap(keys, 1.0f, HashSpreader.MURMUR, arena);
+			shared.close();
+			if (!shared.isAlive() || shared.getIndex(keys[999]) != 999){
+				throw new AssertionError("closed with a caller's arena");
+			}
+		}
+		if (shared.isAlive()){
+			throw new AssertionError("alive after its arena was closed");
+		}
+		OffHeapFastMap owned = OffHeapFastMap.copyOf(new FastMapV5(keys));
+		if (owned.getIndex(keys[0]) != 0){
+			throw new AssertionError("copy");
+		}
+		owned.close();
+		owned.close();
+		try {
+			owned.getIndex(keys[0]);
+			throw new AssertionError("read after close");
+		} catch (IllegalStateException expected){
+		}
+		System.out.println("OffHeapFastMap arenas OK");
+	}
+
+	/**
+	 * Compares lookups in PackedFastMap with the same layout off the heap
+	 * in OffHeapFastMap, and the heap each leaves in use.
+	 */
+	public static void runOffHeapTest(int size){
+		int[] keys = FastMapTest.createUniqueArray(size);
+		int lookups = 1<<22;
+		int[] order = new int[lookups];
+		int[] probes = new int[lookups];
+		java.util.Random random = new java.util.Random(size);
+		for (int i = 0 ; i < lookups ; i++){
+			order[i] = random.nextInt(keys.length);
+			probes[i] = keys[order[i]];
+		}
+		System.out.println(size+" keys");
+		try (OffHeapFastMap offHeap = new OffHeapFastMap(keys)){
+			System.out.println("  heap in use, OffHeapFastMap only= "+heapUsedMb()+" MB ("
+					+(offHeap.byteSize()>>20)+" MB off heap)");
+			PackedFastMap onHeap = new PackedFastMap(keys);
+			System.out.println("  heap in use, with PackedFastMap= "+heapUsedMb()+" MB");
+			for (int repeat = 0 ; repeat < 3 ; repeat++){
+				FastMapTest.testRandomOrder(onHeap, probes, order, repeat==2);
+				FastMapTest.testRandomOrder(offHeap, probes, order, repeat==2);
+			}
+		}
+	}
+
+	private static long heapUsedMb(){
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return (runtime.totalMemory()-runtime.freeMemory())>>20;
+	}
+}
@@ -0,0 +1,54 @@
+package com.keatingfinance.datastruct;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Matches a group of 16 control bytes with one 128 bit vector compare.
+ *
+ * The compare mask is turned back into bits by blending 0x80 into the
+ * matching lanes and reading the vector as two longs, which are then
+ * gathered as in SwarGroupMatcher. VectorMask.toLong() would be simpler
+ * but is not compiled to a vector instruction by every JDK that has the
+ * incubator module, and is very slow when it is not.
+ *
+ * This class needs the jdk.incubator.vector module, both to compile and
+ * to run (java --add-modules jdk.incubator.vector). So that the FastMap
+ * directory still compiles with plain javac, it is kept in a source
+ * directory of its own, compiled after FastMap into the same output:
+ *
+ * 	javac -d classes FastMap/*.java ...
+ * 	javac --add-modules jdk.incubator.vector -cp classes -d classes FastMapVector/*.java
+ *
+ * SwissTableMap only loads it when the module is present in the boot
+ * layer and the class is on the class path, otherwise it falls back to
+ * SwarGroupMatcher, so nothing else refers to it directly.
+ *
+ * @author Oliver Keating
+ *
+ */
+final class VectorGroupMatcher implements GroupMatcher {
+
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_128;
+	private static final ByteVector ZERO = ByteVector.zero(SPECIES);
+	private static final ByteVector HIGH_BITS = ByteVector.broadcast(SPECIES, (byte) 0x80);
+
+	@Override
+	public int match(byte[] ctrl, int base, byte tag) {
+		ByteVector group = ByteVector.fromArray(SPECIES, ctrl, base);
+		return toBits(ZERO.blend(HIGH_BITS, group.eq(tag)));
+	}
+
+	@Override
+	public int matchEmpty(byte[] ctrl, int base) {
+		//only EMPTY has the high bit set
+		return toBits(ByteVector.fromArray(SPECIES, ctrl, base).and(HIGH_BITS));
+	}
+
+	private static int toBits(ByteVector highBits){
+		LongVector longs = highBits.reinterpretAsLongs();
+		return SwarGroupMatcher.gather(longs.lane(0))
+				| (SwarGroupMatcher.gather(longs.lane(1)) << 8);
+	}
+}
@@ -0,0 +1,134 @@
+package tries;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Alphabet maps the characters that appear in a list of tickers to small,
+ * dense character codes, for the tries to use as array offsets.
+ *
+ * TrieNode used c - 64, which is only right for '@' and A-Z. Tickers also
+ * have digits, '.', '/', '-' and lower case suffixes (BRK.B, RDS/A), and
+ * there is no need to leave room for characters that never appear. Here
+ * the codes are worked out from a histogram of the characters in the
+ * tickers: the most common character gets code 1, the next 2, and so on.
+ * Code 0 is left for the end of a ticker, and is also the code of every
+ * character not in the alphabet, which can never be part of a ticker the
+ * trie holds.
+ *
+ * The table is indexed by char, and covers at least the first 256 chars,
+ * so that a byte read as ISO-8859-1 (b & 0xFF) can be looked up without a
+ * range check, for tickers read straight out of a network buffer.
+ *
+ * Immutable once built, and therefore thread-safe.
+ *
+ * @author Oliver Keating
+ *
+ */
+public final class Alphabet implements Serializable {
+
+	private static final long serialVersionUID = 2811925465063915842L;
+	final public static int END = 0;
+	final private static int BYTE_CHARS = 256;
+	/*
+	 * the code of every char, END for chars not in the alphabet
+	 */
+	final private int[] codes;
+	/*
+	 * the char of every code, chars[END] is unused
+	 */
+	final private char[] chars;
+	final private int[] counts;
+
+	public Alphabet(String[] listOfTickers){
+		int maxChar = BYTE_CHARS - 1;
+		for (String ticker : listOfTickers){
+			for (int i = 0 ; i < ticker.length() ; i++){
+				maxChar = Math.max(maxChar, ticker.charAt(i));
+			}
+		}
+		int[] histogram = new int[maxChar + 1];
+		int distinct = 0;
+		for (String ticker : listOfTickers){
+			for (int i = 0 ; i < ticker.length() ; i++){
+				if (histogram[ticker.charAt(i)]++ == 0){
+					distinct++;
+				}
+			}
+		}
+		/*
+		 * sort the chars present by descending count, then by char, packing
+		 * count and char into a long so that it is a plain sort
+		 */
+		long[] byCount = new long[distinct];
+		int n = 0;
+		for (int c = 0 ; c < histogram.length ; c++){
+			if (histogram[c] != 0){
+				byCount[n++] = (((long) -histogram[c]) << Character.SIZE) | c;
+			}
+		}
+		Arrays.sort(byCount);
+
+		codes = new int[histogram.length];
+		chars = new char[distinct + 1];
+		counts = new int[distinct + 1];
+		for (int i = 0 ; i < distinct ; i++){
+			char c = (char) (byCount[i] & Character.MAX_VALUE);
+			int code = i + 1;
+			codes[c] = code;
+			chars[code] = c;
+			counts[code] = histogram[c];
+		}
+	}
+
+	/**
+	 * @param c
+	 * @return the code of c, or END if c is not in the alphabet
+	 */
+	public int code(char c){
+		return c < codes.length ? codes[c] : END;
+	}
+
+	/**
+	 * @param b - a byte of an ISO-8859-1 (or ASCII) ticker
+	 * @return the code of the char b, or END if it is not in the alphabet
+	 */
+	public int code(byte b){
+		return codes[b & 0xFF];
+	}
+
+	/**
+	 * @param code - from 1 to size()-1
+	 * @return the char with that code
+	 */
+	public char charOf(int code){
+		return chars[code];
+	}
+
+	/**
+	 * @param code - from 1 to size()-1
+	 * @return how many times the char with that code appeared in the tickers
+	 */
+	public int countOf(int code){
+		return counts[code];
+	}
+
+	public boolean contains(char c){
+		return code(c) != END;
+	}
+
+	/**
+	 * @return the number of codes, the distinct chars plus one for END
+	 */
+	public int size(){
+		return chars.length;
+	}
+
+	/**
+	 * @return the chars in code order, most common first
+	 */
+	@Override
+	public String toString(){
+		return "Alphabet["+new String(chars, 1, chars.length - 1)+"]";
+	}
+}
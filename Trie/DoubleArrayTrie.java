@@ -0,0 +1,346 @@
+package tries;
+
+import java.util.Arrays;
+
+/**
+ * DoubleArrayTrie is a trie held in two int arrays, base and check, rather
+ * than in a tree of TrieNode objects (Aoe's double array).
+ *
+ * Each node of the trie is a state, a position in the arrays. The child of
+ * state s for the character code c is the state
+ * 		t = base[s] + c
+ * which is only really a child of s if check[t] == s. Any other value of
+ * check[t] means s has no such child, and the ticker is not in the trie.
+ * A lookup is therefore a loop of two array reads per character, with no
+ * object to follow and no virtual call.
+ *
+ * The end of a ticker is the character code 0, so that a ticker that is
+ * the prefix of another (A and AA) has a state of its own. Its base holds
+ * the index of the ticker, as -(index+1), as nothing follows it.
+ *
+ * The character codes come from an Alphabet built from the tickers, so
+ * any character may appear in a ticker, and there are only as many codes
+ * as there are distinct characters. A lookup with a character that is not
+ * in the alphabet stops there, and is not found.
+ *
+ * The arrays are filled by giving each state the lowest base at which all
+ * of its children land on free positions, working through the tickers in
+ * sorted order, so that they are densely packed. Every base leaves room
+ * for the whole alphabet at the end of the arrays, so base[s] + c is always
+ * within them.
+ *
+ * getIndex(byte[], int, int) looks up a ticker held as ISO-8859-1 (or
+ * ASCII) bytes, such as a symbol in a network buffer, without making a
+ * String or allocating anything.
+ *
+ * As the states are made from the tickers in sorted order, the tickers
+ * below each state are a range of ranks (see PrefixTrie), which is kept
+ * for every state in two more arrays, from and to, for prefixRange.
+ *
+ * A ticker that is not present returns getNullIndex(), -1.
+ *
+ * @author Oliver Keating
+ *
+ */
+public class DoubleArrayTrie implements PrefixTrie {
+
+	final private static int END = Alphabet.END;
+	final private static int FREE = -1;
+	final private static int ROOT = 0;
+
+	final private Alphabet alphabet;
+	final private int alphabetSize;
+	/*
+	 * the tickers by index, and the index of each rank
+	 */
+	final private String[] tickers;
+	final private int[] indicesByRank;
+	private int[] base;
+	private int[] check;
+	private int[] from;
+	private int[] to;
+	private int states;
+	/*
+	 * the lowest position that may be free, where the search for a base starts
+	 */
+	private int firstFree = ROOT + 1;
+	private int nullIndex = -1;
+
+	/**
+	 * @param listOfTickers - the index of each ticker becomes its value
+	 */
+	public DoubleArrayTrie(String[] listOfTickers){
+		alphabet = new Alphabet(listOfTickers);
+		alphabetSize = alphabet.size();
+		tickers = listOfTickers.clone();
+		String[] sorted = new String[listOfTickers.length];
+		int[] indices = sortedIndices(listOfTickers);
+		indicesByRank = indices;
+		for (int i = 0 ; i < indices.length ; i++){
+			sorted[i] = listOfTickers[indices[i]];
+			if (i > 0 && sorted[i].equals(sorted[i-1])){
+				throw new IllegalArgumentException("Duplicated ticker:"+sorted[i]);
+			}
+		}
+		base = new int[Math.max(alphabetSize, listOfTickers.length * 2)];
+		check = new int[base.length];
+		from = new int[base.length];
+		to = new int[base.length];
+		Arrays.fill(check, FREE);
+		check[ROOT] = ROOT;
+		states = 1;
+		addChildren(ROOT, sorted, indices, 0, sorted.length, 0);
+		trim();
+	}
+
+	private static int[] sortedIndices(String[] listOfTickers){
+		Integer[] boxed = new Integer[listOfTickers.length];
+		for (int i = 0 ; i < boxed.length ; i++){
+			boxed[i] = i;
+		}
+		Arrays.sort(boxed, (a, b) -> listOfTickers[a].compareTo(listOfTickers[b]));
+		int[] indices = new int[boxed.length];
+		for (int i = 0 ; i < boxed.length ; i++){
+			indices[i] = boxed[i];
+		}
+		return indices;
+	}
+
+	private int codeAt(String ticker, int depth){
+		return depth == ticker.length() ? END : alphabet.code(ticker.charAt(depth));
+	}
+
+	/**
+	 * Adds the children of state, for the tickers sorted[from] to
+	 * sorted[to-1], which share their first depth characters. Being sorted,
+	 * the tickers with the same next character are together, and the
+	 * ticker that ends here comes first. The codes are not in sorted
+	 * order, as the alphabet is ordered by how common each character is.
+	 */
+	private void addChildren(int state, String[] sorted, int[] indices, int from, int to, int depth){
+		int[] codes = new int[Math.min(to - from, alphabetSize)];
+		int count = 0;
+		for (int i = from ; i < to ; i++){
+			int c = codeAt(sorted[i], depth);
+			if (count == 0 || codes[count-1] != c){
+				codes[count++] = c;
+			}
+		}
+		int b = findBase(codes, count);
+		base[state] = b;
+		this.from[state] = from;
+		this.to[state] = to;
+		for (int i = 0 ; i < count ; i++){
+			check[b + codes[i]] = state;
+		}
+		states += count;
+		while (firstFree < check.length && check[firstFree] != FREE){
+			firstFree++;
+		}
+
+		int start = from;
+		for (int i = 0 ; i < count ; i++){
+			int end = start;
+			while (end < to && codeAt(sorted[end], depth) == codes[i]){
+				end++;
+			}
+			if (codes[i] == END){
+				base[b] = -indices[start] - 1;
+				this.from[b] = start;
+				this.to[b] = end;
+			} else {
+				addChildren(b + codes[i], sorted, indices, start, end, depth + 1);
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * @return the lowest base, at least 1, at which every code lands on a free position
+	 */
+	private int findBase(int[] codes, int count){
+		int b = Math.max(1, firstFree - (count == 0 ? 0 : codes[0]));
+		while (true){
+			ensureCapacity(b + alphabetSize);
+			boolean free = true;
+			for (int i = 0 ; i < count && free ; i++){
+				free = check[b + codes[i]] == FREE;
+			}
+			if (free){
+				return b;
+			}
+			b++;
+		}
+	}
+
+	private void ensureCapacity(int length){
+		if (length > check.length){
+			int newLength = Math.max(length, check.length * 2);
+			int oldLength = check.length;
+			base = Arrays.copyOf(base, newLength);
+			check = Arrays.copyOf(check, newLength);
+			from = Arrays.copyOf(from, newLength);
+			to = Arrays.copyOf(to, newLength);
+			Arrays.fill(check, oldLength, newLength, FREE);
+		}
+	}
+
+	/**
+	 * Cuts the arrays down to the last used position, plus room for the
+	 * alphabet after the highest base
+	 */
+	private void trim(){
+		int length = 0;
+		for (int s = 0 ; s < check.length ; s++){
+			if (check[s] != FREE){
+				length = Math.max(length, s + 1);
+				if (base[s] > 0){
+					length = Math.max(length, base[s] + alphabetSize);
+				}
+			}
+		}
+		base = Arrays.copyOf(base, length);
+		check = Arrays.copyOf(check, length);
+		from = Arrays.copyOf(from, length);
+		to = Arrays.copyOf(to, length);
+	}
+
+	@Override
+	public int getIndex(String ticker) {
+		return getIndex((CharSequence) ticker);
+	}
+
+	public int getIndex(CharSequence ticker) {
+		final int[] base = this.base;
+		final int[] check = this.check;
+		int state = ROOT;
+		for (int i = 0 ; i < ticker.length() ; i++){
+			int c = alphabet.code(ticker.charAt(i));
+			if (c == END){
+				return nullIndex;
+			}
+			int next = base[state] + c;
+			if (check[next] != state){
+				return nullIndex;
+			}
+			state = next;
+		}
+		int end = base[state] + END;
+		if (check[end] != state){
+			return nullIndex;
+		}
+		return -base[end] - 1;
+	}
+
+	/**
+	 * Looks up the ticker held in buf[off] to buf[off+len-1], one char per
+	 * byte, without copying it.
+	 */
+	@Override
+	public int getIndex(byte[] buf, int off, int len) {
+		final int[] base = this.base;
+		final int[] check = this.check;
+		int state = ROOT;
+		for (int i = off ; i < off + len ; i++){
+			int c = alphabet.code(buf[i]);
+			if (c == END){
+				return nullIndex;
+			}
+			int next = base[state] + c;
+			if (check[next] != state){
+				return nullIndex;
+			}
+			state = next;
+		}
+		int end = base[state] + END;
+		if (check[end] != state){
+			return nullIndex;
+		}
+		return -base[end] - 1;
+	}
+
+	/**
+	 * Follows the prefix as getIndex does, but without the end of ticker
+	 * step, and returns the range of the state reached.
+	 */
+	@Override
+	public Range prefixRange(CharSequence prefix, Range range) {
+		final int[] base = this.base;
+		final int[] check = this.check;
+		int state = ROOT;
+		for (int i = 0 ; i < prefix.length() ; i++){
+			int c = alphabet.code(prefix.charAt(i));
+			if (c == END){
+				return range.set(0, 0);
+			}
+			int next = base[state] + c;
+			if (check[next] != state){
+				return range.set(0, 0);
+			}
+			state = next;
+		}
+		return range.set(from[state], to[state]);
+	}
+
+	@Override
+	public int indexAt(int rank){
+		return indicesByRank[rank];
+	}
+
+	@Override
+	public String tickerAt(int rank){
+		return tickers[indicesByRank[rank]];
+	}
+
+	/**
+	 * @param index
+	 * @return the ticker given that index on construction
+	 */
+	public String tickerOf(int index){
+		return tickers[index];
+	}
+
+	@Override
+	public int size(){
+		return tickers.length;
+	}
+
+	public int getNullIndex(){
+		return nullIndex;
+	}
+
+	/**
+	 * Allows the caller to specify what is returned for a missing ticker
+	 * @param nullIndex
+	 */
+	public void setNullIndex(int nullIndex){
+		this.nullIndex = nullIndex;
+	}
+
+	public Alphabet getAlphabet(){
+		return alphabet;
+	}
+
+	/**
+	 * @return the number of states in use, one for the root, one per
+	 * 		distinct prefix and one per ticker for its end
+	 */
+	public int stateCount(){
+		return states;
+	}
+
+	/**
+	 * @return the length of the base and check arrays
+	 */
+	public int arrayLength(){
+		return base.length;
+	}
+
+	/**
+	 * @return the bytes held by the base, check, from and to arrays, and
+	 * 		the rank and ticker arrays, but not the tickers themselves
+	 */
+	public long byteSize(){
+		return 4L * base.length * Integer.BYTES + 2L * tickers.length * Integer.BYTES;
+	}
+}
@@ -0,0 +1,208 @@
+package tries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.keatingfinance.datastruct.HashSpreader;
+import com.keatingfinance.datastruct.LongFastMap;
+
+/**
+ * PackedTickerTrie maps a ticker to its index without walking a node per
+ * character. Almost every ticker is a handful of ASCII characters, so the
+ * whole ticker fits in a long, 7 bits per character, up to MAX_PACKED_LENGTH
+ * characters. The packed ticker is then looked up in a LongFastMap.
+ *
+ * The characters are packed as the digits of a base 128 number, the last
+ * character in the low 7 bits. NUL is not allowed, so no digit is 0 and
+ * tickers of different lengths never pack to the same long, and 9 digits
+ * need only 63 bits, so a packed ticker is never negative.
+ *
+ * Tickers that do not pack (longer than MAX_PACKED_LENGTH, or with a
+ * character outside 1-127) are kept in a HashMap instead. Looking one of
+ * those up builds a String, every other lookup is allocation free. The
+ * CharSequence and byte[] overloads mean that a ticker parsed out of a feed
+ * buffer need never become a String at all; bytes are read as ISO-8859-1,
+ * one char per byte.
+ *
+ * A ticker that is not present returns getNullIndex(), -1.
+ *
+ * Given a String that a HashMap has already hashed, the HashMap is still
+ * faster, having cached the hash code. Given the bytes of a ticker, as read
+ * from a feed, this is several times faster than making a String to look
+ * up in a HashMap. See TrieTest.
+ *
+ * @author Oliver Keating
+ *
+ */
+public class PackedTickerTrie implements Trie {
+
+	final public static int BITS_PER_CHAR = 7;
+	final public static int MAX_PACKED_LENGTH = Long.SIZE / BITS_PER_CHAR;
+	/**
+	 * returned by pack for a ticker that does not fit in a long
+	 */
+	final public static long NOT_PACKED = -1L;
+	final private static int MAX_CHAR = (1 << BITS_PER_CHAR) - 1;
+
+	final private LongFastMap packed;
+	final private Map<String,Integer> unpacked = new HashMap<>();
+	final private int size;
+	private int nullIndex = -1;
+
+	public PackedTickerTrie(String[] listOfTickers){
+		this(listOfTickers, HashSpreader.MULTIPLY_SHIFT);
+	}
+	/**
+	 * @param listOfTickers - the index of each ticker becomes its value
+	 * @param spreader - for the LongFastMap, see HashSpreader
+	 */
+	public PackedTickerTrie(String[] listOfTickers, HashSpreader spreader){
+		long[] keys = new long[listOfTickers.length];
+		int packedCount = 0;
+		for (int i = 0 ; i < listOfTickers.length ; i++){
+			keys[i] = pack(listOfTickers[i]);
+			if (keys[i] != NOT_PACKED){
+				packedCount++;
+			}
+		}
+		LongFastMap.Builder builder = LongFastMap.getBuilder(packedCount, spreader);
+		for (int i = 0 ; i < listOfTickers.length ; i++){
+			if (keys[i] != NOT_PACKED){
+				builder.put(keys[i], i);
+			} else if (unpacked.put(listOfTickers[i], i) != null){
+				throw new IllegalArgumentException("Duplicated ticker:"+listOfTickers[i]);
+			}
+		}
+		packed = builder.build();
+		size = listOfTickers.length;
+	}
+
+	/**
+	 * @param ticker
+	 * @return the ticker packed 7 bits per character, or NOT_PACKED if it
+	 * 		is too long or has a character outside 1-127
+	 */
+	public static long pack(CharSequence ticker){
+		final int length = ticker.length();
+		if (length > MAX_PACKED_LENGTH){
+			return NOT_PACKED;
+		}
+		long key = 0;
+		for (int i = 0 ; i < length ; i++){
+			int c = ticker.charAt(i);
+			if (c == 0 || c > MAX_CHAR){
+				return NOT_PACKED;
+			}
+			key = (key << BITS_PER_CHAR) | c;
+		}
+		return key;
+	}
+
+	/**
+	 * As pack(CharSequence), for the ASCII bytes buf[off] to buf[off+len-1]
+	 */
+	public static long pack(byte[] buf, int off, int len){
+		if (len > MAX_PACKED_LENGTH){
+			return NOT_PACKED;
+		}
+		long key = 0;
+		for (int i = off ; i < off + len ; i++){
+			//bytes above 127 are negative, as is every bit of NOT_PACKED
+			int c = buf[i];
+			if (c <= 0){
+				return NOT_PACKED;
+			}
+			key = (key << BITS_PER_CHAR) | c;
+		}
+		return key;
+	}
+
+	/**
+	 * The reverse of pack
+	 * @param key - a packed ticker, not NOT_PACKED
+	 * @return
+	 */
+	public static String unpack(long key){
+		char[] chars = new char[MAX_PACKED_LENGTH];
+		int start = chars.length;
+		while (key != 0){
+			chars[--start] = (char) (key & MAX_CHAR);
+			key >>>= BITS_PER_CHAR;
+		}
+		return new String(chars, start, chars.length - start);
+	}
+
+	@Override
+	public int getIndex(String ticker) {
+		long key = pack(ticker);
+		if (key != NOT_PACKED){
+			return indexOf(packed.getIndex(key));
+		}
+		return unpackedIndex(ticker);
+	}
+
+	public int getIndex(CharSequence ticker) {
+		long key = pack(ticker);
+		if (key != NOT_PACKED){
+			return indexOf(packed.getIndex(key));
+		}
+		return unpackedIndex(ticker.toString());
+	}
+
+	/**
+	 * Looks up the ticker held in buf[off] to buf[off+len-1], such as a
+	 * symbol field in a feed message, without copying it.
+	 */
+	@Override
+	public int getIndex(byte[] buf, int off, int len) {
+		long key = pack(buf, off, len);
+		if (key != NOT_PACKED){
+			return indexOf(packed.getIndex(key));
+		}
+		return unpackedIndex(new String(buf, off, len, StandardCharsets.ISO_8859_1));
+	}
+
+	private int indexOf(int index){
+		return index == packed.getNullIndex() ? nullIndex : index;
+	}
+
+	private int unpackedIndex(String ticker){
+		if (unpacked.isEmpty()){
+			return nullIndex;
+		}
+		Integer index = unpacked.get(ticker);
+		return index == null ? nullIndex : index;
+	}
+
+	public boolean contains(CharSequence ticker){
+		return getIndex(ticker) != nullIndex;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the number of tickers that did not pack, and are held in a HashMap
+	 */
+	public int unpackedSize(){
+		return unpacked.size();
+	}
+
+	public int getNullIndex(){
+		return nullIndex;
+	}
+
+	/**
+	 * Allows the caller to specify what is returned for a missing ticker
+	 * @param nullIndex
+	 */
+	public void setNullIndex(int nullIndex){
+		this.nullIndex = nullIndex;
+	}
+
+	public LongFastMap getPackedMap(){
+		return packed;
+	}
+}
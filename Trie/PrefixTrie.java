@@ -0,0 +1,210 @@
+package tries;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A Trie that can also find every ticker starting with a prefix.
+ *
+ * The tickers are ranked in sorted order (String.compareTo), rank 0 being
+ * the first. The tickers starting with a prefix are then the ranks of one
+ * range [from, to), which the trie can keep for every node, so that
+ * prefixRange costs one step per character of the prefix, however many
+ * tickers the range holds. indexAt turns a rank back into the index the
+ * ticker was given on construction; if the tickers were given in sorted
+ * order the two are the same.
+ *
+ * @author Oliver Keating
+ *
+ */
+public interface PrefixTrie extends Trie {
+
+	/**
+	 * @param prefix
+	 * @param range - set to the ranks of the tickers starting with prefix,
+	 * 			empty if there are none. May be reused between calls.
+	 * @return range
+	 */
+	Range prefixRange(CharSequence prefix, Range range);
+
+	default Range prefixRange(CharSequence prefix){
+		return prefixRange(prefix, new Range());
+	}
+
+	/**
+	 * @param rank - from 0 to size()-1
+	 * @return the index of the ticker of that rank
+	 */
+	int indexAt(int rank);
+
+	/**
+	 * @param rank - from 0 to size()-1
+	 * @return the ticker of that rank
+	 */
+	String tickerAt(int rank);
+
+	/**
+	 * @return the number of tickers
+	 */
+	int size();
+
+	/**
+	 * The first k tickers starting with prefix, in sorted order, which puts
+	 * the prefix itself (if it is a ticker) first, then shorter tickers
+	 * before their own extensions.
+	 *
+	 * @param prefix
+	 * @param k - the most to return
+	 * @return the indices of the tickers
+	 */
+	default PrimitiveIterator.OfInt completions(CharSequence prefix, int k){
+		final Range range = prefixRange(prefix);
+		final int end = range.from() + Math.min(Math.max(k, 0), range.size());
+		return new PrimitiveIterator.OfInt() {
+			int rank = range.from();
+
+			@Override
+			public boolean hasNext() {
+				return rank < end;
+			}
+
+			@Override
+			public int nextInt() {
+				if (rank >= end){
+					throw new NoSuchElementException();
+				}
+				return indexAt(rank++);
+			}
+		};
+	}
+
+	/**
+	 * The k tickers starting with prefix that have the highest weights,
+	 * such as traded volume, highest first, ties in sorted order. Every
+	 * ticker of the range is looked at, keeping the best k in a heap.
+	 *
+	 * @param prefix
+	 * @param k - the most to return
+	 * @param weights - the weight of each ticker, by index
+	 * @return the indices of the tickers
+	 */
+	default PrimitiveIterator.OfInt completions(CharSequence prefix, int k, double[] weights){
+		final Range range = prefixRange(prefix);
+		final int[] best = topK(this, range, Math.min(Math.max(k, 0), range.size()), weights);
+		return new PrimitiveIterator.OfInt() {
+			int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < best.length;
+			}
+
+			@Override
+			public int nextInt() {
+				if (i >= best.length){
+					throw new NoSuchElementException();
+				}
+				return best[i++];
+			}
+		};
+	}
+
+	/**
+	 * @return the indices of the k best tickers of range, best first
+	 */
+	private static int[] topK(PrefixTrie trie, Range range, int k, double[] weights){
+		//a heap of ranks with the worst at the top
+		final int[] heap = new int[k];
+		int size = 0;
+		for (int rank = range.from() ; rank < range.to() && k > 0 ; rank++){
+			if (size < k){
+				int i = size++;
+				heap[i] = rank;
+				while (i > 0 && worse(trie, weights, heap[i], heap[(i-1)/2])){
+					swap(heap, i, (i-1)/2);
+					i = (i-1)/2;
+				}
+			} else if (worse(trie, weights, heap[0], rank)){
+				heap[0] = rank;
+				siftDown(trie, weights, heap, size);
+			}
+		}
+		//take the worst off the top until the heap is empty, filling from the back
+		int[] best = new int[size];
+		while (size > 0){
+			best[size-1] = trie.indexAt(heap[0]);
+			heap[0] = heap[--size];
+			siftDown(trie, weights, heap, size);
+		}
+		return best;
+	}
+
+	private static void siftDown(PrefixTrie trie, double[] weights, int[] heap, int size){
+		int i = 0;
+		while (true){
+			int worst = i;
+			int left = 2*i + 1;
+			if (left < size && worse(trie, weights, heap[left], heap[worst])){
+				worst = left;
+			}
+			if (left + 1 < size && worse(trie, weights, heap[left+1], heap[worst])){
+				worst = left + 1;
+			}
+			if (worst == i){
+				return;
+			}
+			swap(heap, i, worst);
+			i = worst;
+		}
+	}
+
+	/**
+	 * lower weight is worse, for equal weights the later rank is worse
+	 */
+	private static boolean worse(PrefixTrie trie, double[] weights, int rankA, int rankB){
+		double a = weights[trie.indexAt(rankA)];
+		double b = weights[trie.indexAt(rankB)];
+		return a < b || (a == b && rankA > rankB);
+	}
+
+	private static void swap(int[] heap, int i, int j){
+		int swap = heap[i];
+		heap[i] = heap[j];
+		heap[j] = swap;
+	}
+
+	/**
+	 * A range of ranks [from, to), that can be reused between queries
+	 */
+	public static final class Range{
+		private int from;
+		private int to;
+
+		public Range set(int from, int to){
+			this.from=from;
+			this.to=to;
+			return this;
+		}
+
+		public int from(){
+			return from;
+		}
+
+		public int to(){
+			return to;
+		}
+
+		public int size(){
+			return to-from;
+		}
+
+		public boolean isEmpty(){
+			return to==from;
+		}
+
+		@Override
+		public String toString(){
+			return "["+from+", "+to+")";
+		}
+	}
+}
@@ -1,4 +1,7 @@
 package tries;
+
+import java.nio.charset.StandardCharsets;
+
 /**
  * The trie maps a String to an index value
  * 
@@ -10,4 +13,14 @@ package tries;
  */
 public interface Trie {
 	int getIndex(String ticker);
+	/**
+	 * Looks up the ticker held in buf[off] to buf[off+len-1], one char
+	 * per byte (ISO-8859-1, so ASCII as it is).
+	 * 
+	 * This default makes a String; PackedTickerTrie and DoubleArrayTrie
+	 * read the bytes where they are, without allocating.
+	 */
+	default int getIndex(byte[] buf, int off, int len){
+		return getIndex(new String(buf, off, len, StandardCharsets.ISO_8859_1));
+	}
 }
@@ -8,17 +8,28 @@ package tries;
  * 
  * Ultimately it is not as fast as java.util.HashMap so it is here for interest purposes
  * 
+ * Each node has a slot per character of an Alphabet built from the tickers, slot 0
+ * being the leaf for a ticker that ends at that node.
+ * 
+ * A ticker that is not present returns -1, including one with a character
+ * not in the alphabet, whose code is END but which must not be taken for
+ * the end of the ticker.
+ * 
  * @author Oliver Keating
  *
  */
 public class TrieNode implements Trie {
 
+	final private static int NOT_FOUND = -1;
 	final private int depth;
-	final private Trie[] tries = new Trie[27];
+	final private Alphabet alphabet;
+	final private Trie[] tries;
 	
 	
 	public TrieNode(String[] listOfTickers){
 		depth=0;
+		alphabet = new Alphabet(listOfTickers);
+		tries = new Trie[alphabet.size()];
 		for (int i = 0 ; i < listOfTickers.length ; i++){
 			processTicker(listOfTickers[i],i);
 		}
@@ -30,15 +41,16 @@ public class TrieNode implements Trie {
 	 * Private constructor used internally
 	 * @param depth
 	 */
-	private TrieNode(int depth){
+	private TrieNode(int depth, Alphabet alphabet){
 		this.depth=depth;
+		this.alphabet=alphabet;
+		this.tries=new Trie[alphabet.size()];
 	}
 	
 	
 	private void processTicker(String ticker, int tickerIndex) {
 
-		char c = ticker.charAt(depth);
-		int trieIndex = c-64;
+		int trieIndex = alphabet.code(ticker.charAt(depth));
 		if (depth>=(ticker.length()-1)){
 			apppendTrieLeaf(trieIndex,tickerIndex);
 		} else {
@@ -109,10 +121,10 @@ public class TrieNode implements Trie {
 	private TrieNode getTrieNode(int trieIndex){
 		Trie trie = tries[trieIndex];
 		if (trie == null){
-			trie = new TrieNode(depth+1);
+			trie = new TrieNode(depth+1, alphabet);
 			tries[trieIndex]=trie;
 		} else if (trie instanceof TrieLeaf){
-			TrieNode trieNode = new TrieNode(depth+1);
+			TrieNode trieNode = new TrieNode(depth+1, alphabet);
 			trieNode.tries[0] = trie;
 			tries[trieIndex]=trieNode;
 			trie = trieNode;
@@ -121,15 +133,25 @@ public class TrieNode implements Trie {
 		return (TrieNode) trie;
 	}
 
+	public Alphabet getAlphabet(){
+		return alphabet;
+	}
+
 	@Override
 	public int getIndex(String ticker) {
 		String s= ticker.toString();
 		if (s.length() == depth){
-			return tries[0].getIndex(ticker);
+			return tries[0] == null ? NOT_FOUND : tries[0].getIndex(ticker);
+		}
+		int index = alphabet.code(s.charAt(depth));
+		if (index == Alphabet.END){
+			return NOT_FOUND;
+		}
+		Trie trie = tries[index];
+		if (trie == null || (trie instanceof TrieLeaf && s.length() > depth+1)){
+			return NOT_FOUND;
 		}
-		char c = s.charAt(depth);
-		int index = c -64;
-		return tries[index].getIndex(ticker);
+		return trie.getIndex(ticker);
 	}
 	
 
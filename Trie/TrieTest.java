@@ -0,0 +1,315 @@
+package tries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests the Trie implementation(s) against a java.util.HashMap, looking up
+ * every ticker of a random list in a random order.
+ *
+ * As FastMapTest, the order of the tests is randomised, as the second test
+ * may run faster than the first.
+ *
+ * @author Oliver Keating
+ *
+ */
+public class TrieTest {
+
+	public static final int DEFAULT_SIZE = 40000;
+
+	public static final int DEFAULT_REPEATS = 5;
+	/*
+	 * every ticker is looked up this many times per test
+	 */
+	private static final int PASSES = 10;
+
+	/**
+	 * First arg is the number of tickers, second the repeats
+	 *
+	 * "memory" as the first arg instead runs runMemoryTest, and "prefix"
+	 * runs runPrefixTest, with the number of tickers as the second arg.
+	 * "missing" runs checkMissingTickers
+	 * @param args
+	 */
+	public static void main(String... args){
+		if (args.length>0 && args[0].equals("memory")){
+			runMemoryTest(args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE);
+			return;
+		}
+		if (args.length>0 && args[0].equals("prefix")){
+			runPrefixTest(args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE);
+			return;
+		}
+		if (args.length>0 && args[0].equals("missing")){
+			checkMissingTickers();
+			return;
+		}
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE;
+		int repeats = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPEATS;
+		for (int i = 0 ; i < repeats ; i++){
+			runTest(size);
+		}
+	}
+
+	public static void runTest(int size){
+		String[] tickers = createTickers(size, new Random());
+		int[] order = shuffledOrder(size, new Random());
+		byte[][] bytes = new byte[size][];
+		for (int i = 0 ; i < size ; i++){
+			bytes[i] = tickers[i].getBytes(StandardCharsets.US_ASCII);
+		}
+
+		Map<String,Integer> map = new HashMap<>();
+		for (int i = 0 ; i < tickers.length ; i++){
+			map.put(tickers[i], i);
+		}
+		Trie[] tries = {
+				new TrieNode(tickers),
+				new PackedTickerTrie(tickers),
+				new DoubleArrayTrie(tickers)
+		};
+
+		/*
+		 * each trie is tested with the String and with the bytes, as for
+		 * a ticker read from a feed, then come the HashMap, and the HashMap
+		 * given a new String made from the bytes
+		 */
+		int tests = 2*tries.length+2;
+		int first = (int) (Math.random()*tests);
+		for (int i = 0 ; i < tests ; i++){
+			int test = (first+i) % tests;
+			if (test == 2*tries.length){
+				testHashMap(map, tickers, order);
+			} else if (test == 2*tries.length+1){
+				testHashMapFromBytes(map, bytes, order);
+			} else if (test >= tries.length){
+				testBytes(tries[test - tries.length], bytes, order);
+			} else {
+				testTrie(tries[test], tickers, order);
+			}
+		}
+	}
+
+	/**
+	 * Compares the memory held by a TrieNode tree with a DoubleArrayTrie for
+	 * the same tickers, both as worked out from the objects (assuming
+	 * compressed oops: 12 byte object headers, 16 byte array headers,
+	 * 4 byte references, 8 byte alignment) and as measured from the heap.
+	 */
+	public static void runMemoryTest(int size){
+		String[] tickers = createTickers(size, new Random());
+
+		long before = heapUsed();
+		TrieNode trieNode = new TrieNode(tickers);
+		long trieNodeMeasured = heapUsed() - before;
+		//header, depth, alphabet and tries references, then the Trie[] array
+		long nodeBytes = align(12 + 4 + 4 + 4) + align(16 + trieNode.getAlphabet().size() * 4);
+		//header, value
+		long leafBytes = align(12 + 4);
+		long trieNodeBytes = nodeBytes * (trieNode.countTotalTrieNodes() + 1)
+				+ leafBytes * trieNode.countTotalLeaves();
+
+		before = heapUsed();
+		DoubleArrayTrie doubleArray = new DoubleArrayTrie(tickers);
+		long doubleArrayMeasured = heapUsed() - before;
+
+		System.out.println(size+" tickers");
+		System.out.println("TrieNode: "+(trieNode.countTotalTrieNodes() + 1)+" nodes, "
+				+trieNode.countTotalLeaves()+" leaves, "+trieNodeBytes+" bytes, measured "+trieNodeMeasured);
+		System.out.println("DoubleArrayTrie: "+doubleArray.stateCount()+" states in arrays of "
+				+doubleArray.arrayLength()+", "+doubleArray.byteSize()+" bytes, measured "+doubleArrayMeasured);
+		System.out.println("DoubleArrayTrie is "+(100 * doubleArray.byteSize() / trieNodeBytes)+"% of TrieNode");
+	}
+
+	/**
+	 * Times finding how many tickers start with each one or two letter
+	 * prefix, with DoubleArrayTrie.prefixRange and by checking every
+	 * ticker, then prints the top completions of a prefix by a made up
+	 * weight.
+	 */
+	public static void runPrefixTest(int size){
+		Random random = new Random();
+		String[] tickers = createTickers(size, random);
+		DoubleArrayTrie trie = new DoubleArrayTrie(tickers);
+		String[] prefixes = new String[26 + 26 * 26];
+		for (int i = 0 ; i < 26 ; i++){
+			prefixes[i] = String.valueOf((char) ('A' + i));
+			for (int j = 0 ; j < 26 ; j++){
+				prefixes[26 + 26 * i + j] = new String(new char[]{(char) ('A' + i), (char) ('A' + j)});
+			}
+		}
+
+		for (int repeat = 0 ; repeat < DEFAULT_REPEATS ; repeat++){
+			PrefixTrie.Range range = new PrefixTrie.Range();
+			long start = System.nanoTime();
+			long trieTotal = 0;
+			for (String prefix : prefixes){
+				trieTotal += trie.prefixRange(prefix, range).size();
+			}
+			print("DoubleArrayTrie.prefixRange", start, prefixes.length);
+
+			start = System.nanoTime();
+			long scanTotal = 0;
+			for (String prefix : prefixes){
+				for (String ticker : tickers){
+					if (ticker.startsWith(prefix)){
+						scanTotal++;
+					}
+				}
+			}
+			print("startsWith over every ticker", start, prefixes.length);
+			if (trieTotal != scanTotal){
+				throw new IllegalStateException("Not right: "+trieTotal+" != "+scanTotal);
+			}
+		}
+
+		double[] weights = new double[size];
+		for (int i = 0 ; i < size ; i++){
+			weights[i] = random.nextDouble();
+		}
+		StringBuilder completions = new StringBuilder();
+		for (PrimitiveIterator.OfInt it = trie.completions("AB", 5, weights) ; it.hasNext() ; ){
+			int index = it.nextInt();
+			completions.append(' ').append(tickers[index]).append('=').append((float) weights[index]);
+		}
+		System.out.println("Top 5 of "+trie.prefixRange("AB").size()+" starting AB:"+completions);
+	}
+
+	private static long align(long bytes){
+		return (bytes + 7) & ~7L;
+	}
+
+	private static long heapUsed(){
+		for (int i = 0 ; i < 3 ; i++){
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Unique tickers of 1 to 5 capital letters, one in ten with a share
+	 * class or series suffix such as .B, /A, -W or 2
+	 */
+	static String[] createTickers(int size, Random random){
+		Set<String> tickers = new LinkedHashSet<>();
+		char[] chars = new char[7];
+		final String separators = "./-";
+		while (tickers.size() < size){
+			int length = 1 + random.nextInt(5);
+			for (int i = 0 ; i < length ; i++){
+				chars[i] = (char) ('A' + random.nextInt(26));
+			}
+			if (random.nextInt(10) == 0){
+				if (random.nextBoolean()){
+					chars[length++] = separators.charAt(random.nextInt(separators.length()));
+					chars[length++] = (char) ((random.nextBoolean() ? 'A' : 'a') + random.nextInt(4));
+				} else {
+					chars[length++] = (char) ('0' + random.nextInt(10));
+				}
+			}
+			tickers.add(new String(chars, 0, length));
+		}
+		return tickers.toArray(new String[size]);
+	}
+
+	static int[] shuffledOrder(int size, Random random){
+		int[] order = new int[size];
+		for (int i = 0 ; i < size ; i++){
+			order[i] = i;
+		}
+		for (int i = size - 1 ; i > 0 ; i--){
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * Checks that every trie returns -1 for tickers it does not hold,
+	 * in particular one with a character not in the alphabet after a
+	 * ticker that is held ("AZ" when "A" is held), and one running on
+	 * past a held ticker ("ABC").
+	 */
+	public static void checkMissingTickers(){
+		String[] tickers = {"A", "AB"};
+		Trie[] tries = {
+				new TrieNode(tickers),
+				new PackedTickerTrie(tickers),
+				new DoubleArrayTrie(tickers)
+		};
+		String[] lookups = {"A", "AB", "AZ", "ABC", "Z", "BA"};
+		int[] expected = {0, 1, -1, -1, -1, -1};
+		for (Trie trie : tries){
+			for (int i = 0 ; i < lookups.length ; i++){
+				byte[] bytes = lookups[i].getBytes(StandardCharsets.US_ASCII);
+				if (trie.getIndex(lookups[i]) != expected[i]
+						|| trie.getIndex(bytes, 0, bytes.length) != expected[i]){
+					throw new IllegalStateException(trie.getClass().getSimpleName()+" not right: "+lookups[i]);
+				}
+			}
+		}
+		System.out.println("Missing tickers OK");
+	}
+
+	private static void testHashMap(Map<String,Integer> map, String[] tickers, int[] order){
+		long start = System.nanoTime();
+		for (int pass = 0 ; pass < PASSES ; pass++){
+			for (int i : order){
+				if (map.get(tickers[i]) != i){
+					throw new IllegalStateException("Not right: "+tickers[i]);
+				}
+			}
+		}
+		print("HashMap", start, PASSES * order.length);
+	}
+
+	private static void testHashMapFromBytes(Map<String,Integer> map, byte[][] bytes, int[] order){
+		long start = System.nanoTime();
+		for (int pass = 0 ; pass < PASSES ; pass++){
+			for (int i : order){
+				String ticker = new String(bytes[i], StandardCharsets.US_ASCII);
+				if (map.get(ticker) != i){
+					throw new IllegalStateException("Not right: "+ticker);
+				}
+			}
+		}
+		print("HashMap new String", start, PASSES * order.length);
+	}
+
+	private static void testTrie(Trie trie, String[] tickers, int[] order){
+		long start = System.nanoTime();
+		for (int pass = 0 ; pass < PASSES ; pass++){
+			for (int i : order){
+				if (trie.getIndex(tickers[i]) != i){
+					throw new IllegalStateException("Not right: "+tickers[i]);
+				}
+			}
+		}
+		print(trie.getClass().getSimpleName(), start, PASSES * order.length);
+	}
+
+	private static void testBytes(Trie trie, byte[][] bytes, int[] order){
+		long start = System.nanoTime();
+		for (int pass = 0 ; pass < PASSES ; pass++){
+			for (int i : order){
+				if (trie.getIndex(bytes[i], 0, bytes[i].length) != i){
+					throw new IllegalStateException("Not right: "+new String(bytes[i], StandardCharsets.US_ASCII));
+				}
+			}
+		}
+		print(trie.getClass().getSimpleName()+" byte[]", start, PASSES * order.length);
+	}
+
+	private static void print(String name, long start, int lookups){
+		long time = System.nanoTime() - start;
+		System.out.println(name+" took "+(time/1000)+" us, "+(time/lookups)+" ns per lookup");
+	}
+}
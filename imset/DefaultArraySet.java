@@ -4,6 +4,11 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+
+import com.keatingfinance.datastruct.IndexLookup;
+import com.keatingfinance.datastruct.IndexLookups;
+import com.keatingfinance.datastruct.UniqueHash;
+import com.keatingfinance.datastruct.UniqueHashRegistry;
 /**
  * An ImSet backed by an array. The array is to be specifed on
  * construction.
@@ -11,6 +16,12 @@ import java.util.Objects;
  * A method is also provided for creating a subset of the set. 
  * this returns a view of the backing array.
  * 
+ * getFromHash uses an IndexLookup of the hash codes when every element
+ * is a UniqueHash. A set created from a UniqueHashRegistry (see
+ * fromRegistry) uses the registry's, otherwise one is built on the first
+ * call. Sets of other elements, or with repeated hash codes, scan the
+ * array.
+ * 
  * @author Oliver Keating
  *
  * @param <T>
@@ -21,17 +32,40 @@ public class DefaultArraySet<T> implements ImSet<T>,ImArraySet<T> {
 	final long timeStamp;
 	final int id;
 	final String desc;
+	/*
+	 * marks a set whose getFromHash scans the array
+	 */
+	private static final IndexLookup SCAN = IndexLookups.build(new int[0]);
+	/*
+	 * index of the hash codes of array, SCAN, or null until the first
+	 * getFromHash
+	 */
+	private volatile IndexLookup hashIndex;
 	public DefaultArraySet(T[] array) {
-		this.array = Objects.requireNonNull(array);
-		this.timeStamp=System.currentTimeMillis();
-		this.id = array.hashCode();
-		this.desc=Arrays.toString(array);
+		this(array, null);
 	}
 	public DefaultArraySet(T[] array, long timeStamp, int id, String desc){
+		this(array, timeStamp, id, desc, null);
+	}
+	private DefaultArraySet(T[] array, IndexLookup hashIndex) {
+		this(array, System.currentTimeMillis(), array.hashCode(), Arrays.toString(array), hashIndex);
+	}
+	private DefaultArraySet(T[] array, long timeStamp, int id, String desc, IndexLookup hashIndex){
 		this.array=Objects.requireNonNull(array);
 		this.timeStamp=timeStamp;
 		this.id=id;
 		this.desc=desc;
+		this.hashIndex=hashIndex;
+	}
+	
+	/**
+	 * Creates a set of the registry's objects, in index order, 
+	 * whose getFromHash is a lookup rather than a scan.
+	 * @param registry
+	 * @return
+	 */
+	public static <T extends UniqueHash> DefaultArraySet<T> fromRegistry(UniqueHashRegistry<T> registry){
+		return new DefaultArraySet<>(registry.toArray(), registry);
 	}
 	
 	
@@ -167,6 +201,15 @@ public class DefaultArraySet<T> implements ImSet<T>,ImArraySet<T> {
 	}
 	@Override
 	public T getFromHash(int hash) {
+		IndexLookup index = hashIndex;
+		if (index == null){
+			index = indexHashes(array);
+			hashIndex = index;
+		}
+		if (index != SCAN){
+			int i = index.getIndex(hash);
+			return i == index.getNullIndex() ? null : array[i];
+		}
 		for (T t : array){
 			if (t.hashCode()==hash){
 				return t;
@@ -175,6 +218,25 @@ public class DefaultArraySet<T> implements ImSet<T>,ImArraySet<T> {
 		return null;
 	}
 
+	/**
+	 * @return an IndexLookup of the hash codes, or SCAN if an element is
+	 * 		not a UniqueHash or two share a hash code
+	 */
+	private static IndexLookup indexHashes(Object[] array){
+		int[] hashes = new int[array.length];
+		for (int i = 0 ; i < array.length ; i++){
+			if (!(array[i] instanceof UniqueHash)){
+				return SCAN;
+			}
+			hashes[i] = array[i].hashCode();
+		}
+		try {
+			return IndexLookups.build(hashes);
+		} catch (IllegalArgumentException duplicated){
+			return SCAN;
+		}
+	}
+
 	
 	
 }